@@ -0,0 +1,43 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.imricki.spring.ocp.OcpApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/*
+ Starts the real application context, without the web server, the Kafka listener and the result publisher,
+ with the Kubernetes client pointed at the given mock API server, so no run waits on a Kafka broker.
+ */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+        // Private constructor to prevent instantiation
+    }
+
+    public static ConfigurableApplicationContext start(MockApiServer server, boolean cacheEnabled) {
+
+        System.setProperty("kubernetes.master", server.url());
+        System.setProperty("kubernetes.auth.tryKubeConfig", "false");
+        System.setProperty("kubernetes.auth.tryServiceAccount", "false");
+        System.setProperty("kubernetes.namespace", "default");
+
+        return new SpringApplicationBuilder(OcpApplication.class)
+                .web(WebApplicationType.NONE)
+                // Command line arguments, so they take precedence over application.yml
+                .run("--provisioning.kafka.auto-startup=false",
+                        "--provisioning.kafka.coalescing.enabled=false",
+                        "--provisioning.kafka.results.enabled=false",
+                        "--spring.kafka.admin.auto-create=false",
+                        // Every iteration provisions from scratch, without journal or background repairs
+                        "--provisioning.journal.enabled=false",
+                        "--provisioning.reconcile.enabled=false",
+                        "--provisioning.cache.enabled=" + cacheEnabled,
+                        // Measure the provisioner and the API server, not our own throttling
+                        "--provisioning.api.rate-limit.permits-per-second=1000000",
+                        "--provisioning.api.rate-limit.burst=1000000",
+                        "--provisioning.api.rate-limit.initial-concurrency=1024",
+                        "--provisioning.api.rate-limit.max-concurrency=1024",
+                        "--logging.level.root=WARN");
+    }
+}
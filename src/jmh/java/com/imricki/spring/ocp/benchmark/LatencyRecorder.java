@@ -0,0 +1,106 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.imricki.spring.ocp.event.ProvisioningResult;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+ Matches provisioning results back to the events that caused them. A successful run of a namespace completes
+ every event of that namespace sent before the run started, so coalesced and duplicate events are covered too,
+ and the latency of an event is the time from its send until the end of the first such run.
+ A failed run completes nothing: the event is either redelivered by Kafka or stays outstanding.
+ */
+public class LatencyRecorder {
+
+    private final Map<String, Deque<long[]>> pending = new HashMap<>();
+    private final Histogram latencies = new Histogram(3_600_000L, 3);
+    private long outstanding;
+    private long completed;
+    private long measuredCompleted;
+    private long rejected;
+    private long runs;
+    private long failedRuns;
+    private long lastCompletionMillis;
+
+    public synchronized void sent(String namespaceName, long sentAtMillis, boolean measured) {
+        pending.computeIfAbsent(namespaceName, key -> new ArrayDeque<>()).addLast(new long[]{sentAtMillis, measured ? 1 : 0});
+        outstanding++;
+    }
+
+    /*
+     The REST API refused the event, its job queue is full.
+     */
+    public synchronized void rejected(String namespaceName, long sentAtMillis) {
+        Deque<long[]> events = pending.get(namespaceName);
+        if (events == null) {
+            return;
+        }
+        Iterator<long[]> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next()[0] == sentAtMillis) {
+                iterator.remove();
+                outstanding--;
+                rejected++;
+                return;
+            }
+        }
+    }
+
+    public synchronized void completed(ProvisioningResult result) {
+
+        runs++;
+        if (!result.isSuccessful()) {
+            failedRuns++;
+            return;
+        }
+        long startedAtMillis = result.getFinishedAtMillis() - result.getDurationMillis();
+        Deque<long[]> events = pending.get(result.getNamespaceName());
+        while (events != null && !events.isEmpty() && events.peekFirst()[0] <= startedAtMillis) {
+            long[] event = events.removeFirst();
+            outstanding--;
+            completed++;
+            if (event[1] == 1) {
+                measuredCompleted++;
+                latencies.recordValue(Math.max(0, result.getFinishedAtMillis() - event[0]));
+                lastCompletionMillis = Math.max(lastCompletionMillis, result.getFinishedAtMillis());
+            }
+        }
+    }
+
+    public synchronized long outstanding() {
+        return outstanding;
+    }
+
+    public synchronized long completed() {
+        return completed;
+    }
+
+    public synchronized long measuredCompleted() {
+        return measuredCompleted;
+    }
+
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    public synchronized long runs() {
+        return runs;
+    }
+
+    public synchronized long failedRuns() {
+        return failedRuns;
+    }
+
+    public synchronized long lastCompletionMillis() {
+        return lastCompletionMillis;
+    }
+
+    public synchronized Histogram latencies() {
+        return latencies.copy();
+    }
+}
@@ -0,0 +1,162 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ Shape of the synthetic load: how fast events arrive, how they spread over applications and environments,
+ how many are plain duplicates and which entry point they take. Parsed from --name=value arguments;
+ arguments it does not know are passed on to the application, e.g. --provisioning.steps.pool-size=32.
+ */
+@Data
+public class LoadProfile {
+
+    // Events per second offered, whatever the service manages to absorb
+    private double rate = 20;
+    private int durationSeconds = 60;
+    // Events sent during the warmup are provisioned but not measured
+    private int warmupSeconds = 10;
+    // Longest wait for outstanding events once sending stopped
+    private int drainSeconds = 120;
+    private int applications = 1000;
+    // Zipf exponent of the application popularity, 0 spreads events evenly
+    private double skew = 0;
+    // Share of events that repeat the previous event, as an at-least-once producer would
+    private double duplicateRatio = 0.1;
+    // Weighted environments of the events, the ones NewApplicationEvent knows
+    private String environments = "INT:4,CER:2,PRE:2,PRO:1,FOR:1";
+    // Share of applications onboarded through the REST API, the others through Kafka
+    private double restRatio = 0.5;
+    private boolean coalescing;
+    // Mock API server
+    private long latencyMillis = 5;
+    private double errorRate;
+    private double throttleRate;
+    // Regression gate, 0 disables the check
+    private double minThroughput;
+    private long maxP99Millis;
+    private List<String> applicationArgs = new ArrayList<>();
+
+    @ToString.Exclude
+    private transient double[] popularity;
+    @ToString.Exclude
+    private transient String[] environmentNames;
+    @ToString.Exclude
+    private transient double[] environmentWeights;
+
+    public static LoadProfile parse(String[] args) {
+
+        LoadProfile profile = new LoadProfile();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "rate" -> profile.rate = Double.parseDouble(value);
+                case "duration-seconds" -> profile.durationSeconds = Integer.parseInt(value);
+                case "warmup-seconds" -> profile.warmupSeconds = Integer.parseInt(value);
+                case "drain-seconds" -> profile.drainSeconds = Integer.parseInt(value);
+                case "applications" -> profile.applications = Integer.parseInt(value);
+                case "skew" -> profile.skew = Double.parseDouble(value);
+                case "duplicate-ratio" -> profile.duplicateRatio = Double.parseDouble(value);
+                case "environments" -> profile.environments = value;
+                case "rest-ratio" -> profile.restRatio = Double.parseDouble(value);
+                case "coalescing" -> profile.coalescing = Boolean.parseBoolean(value);
+                case "latency-millis" -> profile.latencyMillis = Long.parseLong(value);
+                case "error-rate" -> profile.errorRate = Double.parseDouble(value);
+                case "throttle-rate" -> profile.throttleRate = Double.parseDouble(value);
+                case "min-throughput" -> profile.minThroughput = Double.parseDouble(value);
+                case "max-p99-millis" -> profile.maxP99Millis = Long.parseLong(value);
+                default -> profile.applicationArgs.add(arg);
+            }
+        }
+        profile.prepare();
+        return profile;
+    }
+
+    /*
+     Application index drawn from the popularity distribution.
+     */
+    public int nextApplication(Random random) {
+
+        if (popularity == null) {
+            return random.nextInt(applications);
+        }
+        double draw = random.nextDouble();
+        int low = 0;
+        int high = applications - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (popularity[middle] < draw) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*
+     Every application belongs to one environment and always uses the same entry point,
+     so its duplicates really are duplicates and its runs stay ordered.
+     */
+    public NewApplicationEvent event(int application) {
+        double draw = fraction(application, 0x9E3779B9L);
+        int index = 0;
+        while (index < environmentWeights.length - 1 && draw >= environmentWeights[index]) {
+            index++;
+        }
+        return new NewApplicationEvent("load-app-" + application, environmentNames[index]);
+    }
+
+    public boolean viaRest(int application) {
+        return fraction(application, 0xC2B2AE35L) < restRatio;
+    }
+
+    private void prepare() {
+
+        if (skew > 0) {
+            popularity = new double[applications];
+            double total = 0;
+            for (int rank = 0; rank < applications; rank++) {
+                total += 1 / Math.pow(rank + 1, skew);
+                popularity[rank] = total;
+            }
+            for (int rank = 0; rank < applications; rank++) {
+                popularity[rank] /= total;
+            }
+        }
+
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String entry : environments.split(",")) {
+            String[] parts = entry.trim().split(":");
+            weights.put(parts[0], parts.length > 1 ? Double.parseDouble(parts[1]) : 1);
+        }
+        double total = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        environmentNames = weights.keySet().toArray(new String[0]);
+        environmentWeights = new double[environmentNames.length];
+        double cumulative = 0;
+        for (int i = 0; i < environmentNames.length; i++) {
+            cumulative += weights.get(environmentNames[i]) / total;
+            environmentWeights[i] = cumulative;
+        }
+    }
+
+    private static double fraction(int application, long seed) {
+        long hash = (application + 1) * seed;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+}
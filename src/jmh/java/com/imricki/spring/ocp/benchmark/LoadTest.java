@@ -0,0 +1,294 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.OcpApplication;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.event.ProvisioningResult;
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ Synthetic end-to-end load: events go through the REST API and through Kafka (embedded broker) into the real
+ application, which provisions against the mock API server, and are matched back to their results on the results topic.
+ Reports the sustained throughput, the end-to-end latency percentiles and the API calls per run, and exits with
+ status 1 when --min-throughput or --max-p99-millis are not met, so a run can gate capacity regressions.
+
+ Run with: mvn -Pjmh test-compile exec:exec -Djmh.main=com.imricki.spring.ocp.benchmark.LoadTest
+           -Djmh.args="--rate=50 --duration-seconds=120 --skew=1.1 --environments=INT:6,PRE:3,PRO:1"
+ */
+public final class LoadTest {
+
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+    // The raw events topic belongs to the producers, the application does not create it
+    private static final String INPUT_TOPIC = "new-application-events";
+
+    private LoadTest() {
+        // Private constructor to prevent instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        LoadProfile profile = LoadProfile.parse(args);
+        LatencyRecorder recorder = new LatencyRecorder();
+        Path workDirectory = Files.createTempDirectory("ocp-load-test");
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, 6, INPUT_TOPIC);
+        broker.afterPropertiesSet();
+
+        int exitCode;
+        try (MockApiServer server = new MockApiServer(profile.getLatencyMillis(), profile.getErrorRate(), profile.getThrottleRate());
+             ConfigurableApplicationContext context = start(profile, server, broker, workDirectory)) {
+            exitCode = run(profile, recorder, server, context, broker.getBrokersAsString());
+        } finally {
+            broker.destroy();
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext start(LoadProfile profile, MockApiServer server, EmbeddedKafkaBroker broker,
+                                                        Path workDirectory) {
+
+        System.setProperty("kubernetes.master", server.url());
+        System.setProperty("kubernetes.auth.tryKubeConfig", "false");
+        System.setProperty("kubernetes.auth.tryServiceAccount", "false");
+        System.setProperty("kubernetes.namespace", "default");
+
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                "--provisioning.kafka.auto-startup=true",
+                "--provisioning.kafka.coalescing.enabled=" + profile.isCoalescing(),
+                "--provisioning.kafka.input-topic=" + INPUT_TOPIC,
+                "--provisioning.kafka.results.enabled=true",
+                "--provisioning.kafka.results.spill-file=" + workDirectory.resolve("results-spill.ndjson"),
+                "--provisioning.journal.directory=" + workDirectory.resolve("journal"),
+                "--spring.kafka.streams.state-dir=" + workDirectory.resolve("streams"),
+                "--logging.level.root=WARN"));
+        // Last, so the profile can override any of the above
+        args.addAll(profile.getApplicationArgs());
+
+        return new SpringApplicationBuilder(OcpApplication.class).run(args.toArray(new String[0]));
+    }
+
+    private static int run(LoadProfile profile, LatencyRecorder recorder, MockApiServer server,
+                           ConfigurableApplicationContext context, String bootstrapServers) throws InterruptedException {
+
+        String port = context.getEnvironment().getProperty("local.server.port");
+        String commandTopic = context.getEnvironment().getProperty(profile.isCoalescing()
+                ? "provisioning.kafka.input-topic" : "provisioning.kafka.topic");
+        String resultTopic = context.getEnvironment().getProperty("provisioning.kafka.results.topic");
+        URI provisionUri = URI.create("http://localhost:" + port + "/ocp/provisionresources");
+
+        AtomicBoolean consuming = new AtomicBoolean(true);
+        Thread resultConsumer = new Thread(() -> consumeResults(bootstrapServers, resultTopic, recorder, consuming),
+                "load-test-results");
+        resultConsumer.start();
+
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        AtomicLong restErrors = new AtomicLong();
+        Random random = new Random(42);
+
+        try (KafkaProducer<String, NewApplicationEvent> producer = producer(bootstrapServers)) {
+
+            long startMillis = System.currentTimeMillis();
+            long measureFromMillis = startMillis + profile.getWarmupSeconds() * 1000L;
+            long endMillis = measureFromMillis + profile.getDurationSeconds() * 1000L;
+            long intervalNanos = (long) (1_000_000_000L / profile.getRate());
+            long nextSendNanos = System.nanoTime();
+            long nextReportMillis = startMillis + REPORT_INTERVAL_MILLIS;
+            long apiCallsBefore = server.apiCalls();
+            long apiCallsAtMeasure = -1;
+            long runsAtMeasure = 0;
+            long sent = 0;
+            long measuredSent = 0;
+            int previous = -1;
+
+            long now;
+            while ((now = System.currentTimeMillis()) < endMillis) {
+
+                if (apiCallsAtMeasure < 0 && now >= measureFromMillis) {
+                    apiCallsAtMeasure = server.apiCalls();
+                    runsAtMeasure = recorder.runs();
+                }
+                // Open loop: the schedule does not wait for the service, as real producers would not
+                long waitNanos = nextSendNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                nextSendNanos += intervalNanos;
+
+                int application = previous >= 0 && random.nextDouble() < profile.getDuplicateRatio()
+                        ? previous : profile.nextApplication(random);
+                previous = application;
+                NewApplicationEvent event = profile.event(application);
+                long sentAtMillis = System.currentTimeMillis();
+                boolean measured = sentAtMillis >= measureFromMillis;
+                recorder.sent(event.namespaceName(), sentAtMillis, measured);
+                sent++;
+                if (measured) {
+                    measuredSent++;
+                }
+
+                if (profile.viaRest(application)) {
+                    sendRest(httpClient, objectMapper, provisionUri, event, sentAtMillis, recorder, restErrors);
+                } else {
+                    producer.send(new ProducerRecord<>(commandTopic, event.namespaceName(), event));
+                }
+
+                if (sentAtMillis >= nextReportMillis) {
+                    progress("load", sentAtMillis - startMillis, sent, recorder, server);
+                    nextReportMillis += REPORT_INTERVAL_MILLIS;
+                }
+            }
+            producer.flush();
+            long sendingStoppedMillis = System.currentTimeMillis();
+
+            long drainUntilMillis = sendingStoppedMillis + profile.getDrainSeconds() * 1000L;
+            while (recorder.outstanding() > 0 && System.currentTimeMillis() < drainUntilMillis) {
+                Thread.sleep(100);
+                if (System.currentTimeMillis() >= nextReportMillis) {
+                    progress("drain", System.currentTimeMillis() - startMillis, sent, recorder, server);
+                    nextReportMillis += REPORT_INTERVAL_MILLIS;
+                }
+            }
+            // Results still in flight to the results topic
+            Thread.sleep(1000);
+            consuming.set(false);
+            resultConsumer.join(10000);
+
+            return report(profile, recorder, server, measuredSent, measureFromMillis, sendingStoppedMillis,
+                    apiCallsBefore, apiCallsAtMeasure < 0 ? apiCallsBefore : apiCallsAtMeasure, runsAtMeasure,
+                    restErrors.get());
+        }
+    }
+
+    private static void sendRest(HttpClient httpClient, ObjectMapper objectMapper, URI uri, NewApplicationEvent event,
+                                 long sentAtMillis, LatencyRecorder recorder, AtomicLong restErrors) {
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(event)))
+                    .build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                if (e != null || response.statusCode() != 202) {
+                    if (e == null && response.statusCode() == 503) {
+                        recorder.rejected(event.namespaceName(), sentAtMillis);
+                    } else {
+                        restErrors.incrementAndGet();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            restErrors.incrementAndGet();
+        }
+    }
+
+    private static KafkaProducer<String, NewApplicationEvent> producer(String bootstrapServers) {
+
+        JsonSerializer<NewApplicationEvent> valueSerializer = new JsonSerializer<>();
+        valueSerializer.setAddTypeInfo(false);
+        return new KafkaProducer<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                ProducerConfig.LINGER_MS_CONFIG, 5,
+                ProducerConfig.ACKS_CONFIG, "all"),
+                new StringSerializer(), valueSerializer);
+    }
+
+    private static void consumeResults(String bootstrapServers, String topic, LatencyRecorder recorder, AtomicBoolean consuming) {
+
+        ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        try (KafkaConsumer<String, String> consumer = new KafkaConsumer<>(Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                ConsumerConfig.GROUP_ID_CONFIG, "load-test-" + UUID.randomUUID(),
+                ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"),
+                new StringDeserializer(), new StringDeserializer())) {
+            consumer.subscribe(List.of(topic));
+            while (consuming.get()) {
+                for (ConsumerRecord<String, String> consumed : consumer.poll(Duration.ofMillis(200))) {
+                    try {
+                        recorder.completed(objectMapper.readValue(consumed.value(), ProvisioningResult.class));
+                    } catch (Exception e) {
+                        System.err.println("Unreadable provisioning result: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void progress(String phase, long elapsedMillis, long sent, LatencyRecorder recorder, MockApiServer server) {
+        System.out.printf("[%s %4ds] sent=%d completed=%d outstanding=%d runs=%d failed-runs=%d api-calls=%d%n",
+                phase, elapsedMillis / 1000, sent, recorder.completed(), recorder.outstanding(), recorder.runs(),
+                recorder.failedRuns(), server.apiCalls());
+    }
+
+    private static int report(LoadProfile profile, LatencyRecorder recorder, MockApiServer server, long measuredSent,
+                              long measureFromMillis, long sendingStoppedMillis, long apiCallsBefore,
+                              long apiCallsAtMeasure, long runsAtMeasure, long restErrors) {
+
+        Histogram latencies = recorder.latencies();
+        long measuredCompleted = recorder.measuredCompleted();
+        // Completions over the span from the end of the warmup to the last completion, however long the drain took
+        long windowMillis = Math.max(recorder.lastCompletionMillis(), sendingStoppedMillis) - measureFromMillis;
+        double throughput = windowMillis > 0 ? measuredCompleted * 1000.0 / windowMillis : 0;
+        long apiCalls = server.apiCalls() - apiCallsAtMeasure;
+        long runs = recorder.runs() - runsAtMeasure;
+        long p99 = latencies.getValueAtPercentile(99);
+
+        System.out.println();
+        System.out.println("Load profile       " + profile);
+        System.out.printf("Offered            %.1f events/s, %d events measured%n",
+                measuredSent * 1000.0 / Math.max(1, sendingStoppedMillis - measureFromMillis), measuredSent);
+        System.out.printf("Sustained          %.1f events/s, %d completed, %d outstanding, %d rejected (503), %d REST errors%n",
+                throughput, measuredCompleted, recorder.outstanding(), recorder.rejected(), restErrors);
+        System.out.printf("Runs               %d (%d failed) for %d events%n", recorder.runs(), recorder.failedRuns(),
+                recorder.completed());
+        System.out.printf("Latency (ms)       p50=%d p99=%d p999=%d max=%d%n", latencies.getValueAtPercentile(50), p99,
+                latencies.getValueAtPercentile(99.9), latencies.getMaxValue());
+        System.out.printf("API calls          %.1f per run, %.1f per event, %d in total%n",
+                runs > 0 ? (double) apiCalls / runs : 0, measuredCompleted > 0 ? (double) apiCalls / measuredCompleted : 0,
+                server.apiCalls() - apiCallsBefore);
+        System.out.printf("API server         %d writes failed, %d writes throttled%n", server.failedWrites(),
+                server.throttledWrites());
+
+        boolean passed = true;
+        if (profile.getMinThroughput() > 0 && throughput < profile.getMinThroughput()) {
+            System.out.printf("FAILED: throughput %.1f events/s below %.1f%n", throughput, profile.getMinThroughput());
+            passed = false;
+        }
+        if (profile.getMaxP99Millis() > 0 && p99 > profile.getMaxP99Millis()) {
+            System.out.printf("FAILED: p99 latency %d ms above %d ms%n", p99, profile.getMaxP99Millis());
+            passed = false;
+        }
+        return passed ? 0 : 1;
+    }
+}
@@ -0,0 +1,97 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.ManifestHasher;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.api.model.rbac.RoleBinding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Cost of building the desired manifests on their own, no API calls involved.
+ Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="ManifestBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestBenchmark {
+
+    private static final String NAMESPACE = "bench-app";
+    private static final String ENVIRONMENT = "bench";
+
+    private MockApiServer server;
+    private ConfigurableApplicationContext context;
+    private ManifestFactory manifestFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new MockApiServer(0);
+        context = BenchmarkApplication.start(server, false);
+        manifestFactory = context.getBean(ManifestFactory.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.close();
+    }
+
+    @Benchmark
+    public HasMetadata namespace() {
+        return manifestFactory.namespace(NAMESPACE, ENVIRONMENT);
+    }
+
+    @Benchmark
+    public void limitsAndQuotas(Blackhole blackhole) {
+        blackhole.consume(manifestFactory.limitRange(NAMESPACE, ENVIRONMENT));
+        blackhole.consume(manifestFactory.resourceQuota(NAMESPACE, ENVIRONMENT));
+    }
+
+    @Benchmark
+    public HasMetadata serviceAccount() {
+        return manifestFactory.serviceAccount(NAMESPACE);
+    }
+
+    @Benchmark
+    public HasMetadata roleBinding() {
+        return manifestFactory.roleBinding(NAMESPACE);
+    }
+
+    @Benchmark
+    public HasMetadata secret() {
+        return manifestFactory.secret(NAMESPACE);
+    }
+
+    @Benchmark
+    public List<NetworkPolicy> networkPolicies() {
+        return manifestFactory.networkPolicies(NAMESPACE, ENVIRONMENT);
+    }
+
+    /*
+     Building plus stamping the spec-hash annotation, which serializes the manifest to JSON.
+     */
+    @Benchmark
+    public String roleBindingWithHash() {
+        RoleBinding roleBinding = manifestFactory.roleBinding(NAMESPACE);
+        return ManifestHasher.stamp(roleBinding);
+    }
+}
@@ -0,0 +1,196 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.mockwebserver.Context;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ In-process fabric8 CRUD mock API server answering every request after an artificial latency.
+ The delay is applied by the server connection thread, outside the dispatcher lock,
+ so concurrent calls overlap the way they would against a real API server.
+ Writes can be made to fail with 500 or to be throttled with 429 and Retry-After at given rates, and every
+ API call except watches and leases is counted.
+ Leases get optimistic concurrency like on a real API server (the CRUD dispatcher ignores resourceVersion),
+ so several replicas can compete for them in one JVM.
+ */
+public class MockApiServer implements AutoCloseable {
+
+    private final KubernetesMockServer server;
+    private final DelayingDispatcher dispatcher;
+
+    public MockApiServer(long latencyMillis) {
+        this(latencyMillis, 0, 0);
+    }
+
+    public MockApiServer(long latencyMillis, double writeErrorRate, double writeThrottleRate) {
+        this.dispatcher = new DelayingDispatcher(new LeaseVersioningDispatcher(new KubernetesCrudDispatcher()), latencyMillis,
+                writeErrorRate, writeThrottleRate);
+        this.server = new KubernetesMockServer(new Context(), new MockWebServer(), new HashMap<>(), dispatcher, false);
+        this.server.init();
+    }
+
+    public long apiCalls() {
+        return dispatcher.calls.sum();
+    }
+
+    public long failedWrites() {
+        return dispatcher.failed.sum();
+    }
+
+    public long throttledWrites() {
+        return dispatcher.throttled.sum();
+    }
+
+    public String url() {
+        return server.url("/");
+    }
+
+    @Override
+    public void close() {
+        server.destroy();
+    }
+
+    private static final class DelayingDispatcher extends Dispatcher {
+
+        private final Dispatcher delegate;
+        private final long latencyMillis;
+        private final double writeErrorRate;
+        private final double writeThrottleRate;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+
+        private DelayingDispatcher(Dispatcher delegate, long latencyMillis, double writeErrorRate, double writeThrottleRate) {
+            this.delegate = delegate;
+            this.latencyMillis = latencyMillis;
+            this.writeErrorRate = writeErrorRate;
+            this.writeThrottleRate = writeThrottleRate;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+
+            String path = request.getPath();
+            if (path.contains("watch=true") || path.contains("/leases")) {
+                return delegate.dispatch(request).setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+            }
+            calls.increment();
+            // Reads are never failed, informers would give up on their kind and skew the numbers
+            if (!"GET".equals(request.getMethod())) {
+                double draw = ThreadLocalRandom.current().nextDouble();
+                if (draw < writeThrottleRate) {
+                    throttled.increment();
+                    return new MockResponse().setResponseCode(429).setHeader("Retry-After", "1")
+                            .setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+                }
+                if (draw < writeThrottleRate + writeErrorRate) {
+                    failed.increment();
+                    return new MockResponse().setResponseCode(500)
+                            .setBody("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"reason\":\"InternalError\",\"code\":500}")
+                            .setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            return delegate.dispatch(request).setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static final class LeaseVersioningDispatcher extends Dispatcher {
+
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+        private final Dispatcher delegate;
+        // namespace/name to resourceVersion, the CRUD dispatcher keeps a constant one
+        private final Map<String, Long> versions = new HashMap<>();
+        private long nextVersion = 1;
+
+        private LeaseVersioningDispatcher(Dispatcher delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+
+            String path = request.getPath().split("\\?")[0];
+            if (!path.contains("/leases")) {
+                return delegate.dispatch(request);
+            }
+            synchronized (this) {
+                try {
+                    switch (request.getMethod()) {
+                        case "POST":
+                        case "PUT":
+                            return write(request);
+                        case "DELETE":
+                            MockResponse deleted = delegate.dispatch(request);
+                            if (deleted.getStatus().contains(" 20")) {
+                                String[] segments = path.split("/");
+                                versions.remove(segments[segments.length - 3] + "/" + segments[segments.length - 1]);
+                            }
+                            return deleted;
+                        default:
+                            return withVersions(delegate.dispatch(request));
+                    }
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+            }
+        }
+
+        private MockResponse write(RecordedRequest request) throws IOException, InterruptedException {
+
+            ObjectNode body = (ObjectNode) MAPPER.readTree(request.getBody().clone().readUtf8());
+            ObjectNode metadata = (ObjectNode) body.get("metadata");
+            String key = key(metadata);
+            String resourceVersion = metadata.hasNonNull("resourceVersion") ? metadata.get("resourceVersion").asText() : null;
+            Long current = versions.get(key);
+            if ("PUT".equals(request.getMethod()) && current != null && resourceVersion != null
+                    && !resourceVersion.equals(String.valueOf(current))) {
+                return new MockResponse().setResponseCode(409)
+                        .setBody("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"reason\":\"Conflict\",\"code\":409}");
+            }
+            MockResponse response = delegate.dispatch(request);
+            if (response.getStatus().contains(" 20")) {
+                versions.put(key, nextVersion++);
+            }
+            return withVersions(response);
+        }
+
+        private MockResponse withVersions(MockResponse response) throws IOException {
+
+            if (response.getBody() == null || !response.getStatus().contains(" 20")) {
+                return response;
+            }
+            ObjectNode body = (ObjectNode) MAPPER.readTree(response.getBody().clone().readUtf8());
+            if (body.has("items")) {
+                body.get("items").forEach(item -> version((ObjectNode) item.get("metadata")));
+            } else if (body.has("metadata")) {
+                version((ObjectNode) body.get("metadata"));
+            }
+            return response.setBody(MAPPER.writeValueAsString(body));
+        }
+
+        private void version(ObjectNode metadata) {
+            Long version = versions.get(key(metadata));
+            if (version != null) {
+                metadata.put("resourceVersion", String.valueOf(version));
+            }
+        }
+
+        private static String key(ObjectNode metadata) {
+            return metadata.path("namespace").asText() + "/" + metadata.path("name").asText();
+        }
+    }
+}
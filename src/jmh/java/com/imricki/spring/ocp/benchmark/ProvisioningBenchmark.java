@@ -0,0 +1,90 @@
+package com.imricki.spring.ocp.benchmark;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.OpenshiftProvisioner;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import com.imricki.spring.ocp.utils.ProvisioningUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ End-to-end provisioning against the in-process mock API server.
+ Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="ProvisioningBenchmark -t 8"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+    @Param({"0", "5", "20"})
+    public long latencyMillis;
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private MockApiServer server;
+    private ConfigurableApplicationContext context;
+    private OpenshiftProvisioner openshiftProvisioner;
+    private ProvisioningUtils provisioningUtils;
+    private NewApplicationEvent existingApplication;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new MockApiServer(latencyMillis);
+        context = BenchmarkApplication.start(server, cacheEnabled);
+        openshiftProvisioner = context.getBean(OpenshiftProvisioner.class);
+        provisioningUtils = context.getBean(ProvisioningUtils.class);
+
+        existingApplication = new NewApplicationEvent("existing", "bench");
+        openshiftProvisioner.provisionResources(existingApplication);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.close();
+    }
+
+    /*
+     Full run for an application never seen before: every object is created.
+     */
+    @Benchmark
+    public ProvisioningReport provisionNewApplication() {
+        return openshiftProvisioner.provisionResources(new NewApplicationEvent("app" + sequence.incrementAndGet(), "bench"));
+    }
+
+    /*
+     Replay of an already provisioned application: ideally reads only.
+     */
+    @Benchmark
+    public ProvisioningReport reprovisionExistingApplication() {
+        return openshiftProvisioner.provisionResources(existingApplication);
+    }
+
+    /*
+     A single step in isolation, without the step executor around it.
+     */
+    @Benchmark
+    public void createNamespace() {
+        provisioningUtils.createNamespace("bench-ns" + sequence.incrementAndGet(), "bench");
+    }
+}
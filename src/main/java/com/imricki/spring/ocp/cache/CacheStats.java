@@ -0,0 +1,23 @@
+package com.imricki.spring.ocp.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String cluster;
+    private String kind;
+    private boolean synced;
+    private String lastSyncResourceVersion;
+    private long lastEventAtMillis;
+    private int size;
+    private long hits;
+    private long misses;
+}
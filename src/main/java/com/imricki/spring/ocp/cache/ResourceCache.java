@@ -0,0 +1,223 @@
+package com.imricki.spring.ocp.cache;
+
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.utils.OCPResources;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.LimitRange;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.ServiceAccount;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.api.model.rbac.RoleBinding;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.Informable;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/*
+ Local, informer-backed view of every resource kind the provisioner manages, one set of informers per cluster.
+ Only objects carrying the application label from OCPResources are watched, so the cache stays
+ proportional to what we created. Lookups are answered from memory once the informer for the kind
+ has synced; until then (or when informers are disabled) they fall back to a GET against the API server.
+ */
+@Slf4j
+@Component
+public class ResourceCache {
+
+    private final KubernetesClientPool kubernetesClientPool;
+    private final OCPResources ocpResources;
+    private final boolean enabled;
+    private final long resyncPeriodMillis;
+    private final Map<String, Map<Class<?>, CachedKind<?>>> kinds = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, HasMetadata>> changeListeners = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public ResourceCache(final KubernetesClientPool kubernetesClientPool, final OCPResources ocpResources,
+                         @Value("${provisioning.cache.enabled}") boolean enabled,
+                         @Value("${provisioning.cache.resync-period-millis}") long resyncPeriodMillis) {
+        this.kubernetesClientPool = kubernetesClientPool;
+        this.ocpResources = ocpResources;
+        this.enabled = enabled;
+        this.resyncPeriodMillis = resyncPeriodMillis;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+
+        if (!enabled) {
+            log.info("Resource cache disabled, existence checks go to the API server.");
+            return;
+        }
+        String labelKey = ocpResources.getApplicationLabelKey();
+        String labelValue = ocpResources.getApplicationLabelValue();
+
+        for (KubernetesCluster cluster : kubernetesClientPool.clusters()) {
+            String name = cluster.getName();
+            KubernetesClient client = cluster.getClient();
+            register(name, Namespace.class, client.namespaces().withLabel(labelKey, labelValue));
+            register(name, LimitRange.class, client.limitRanges().inAnyNamespace().withLabel(labelKey, labelValue));
+            register(name, ResourceQuota.class, client.resourceQuotas().inAnyNamespace().withLabel(labelKey, labelValue));
+            register(name, ServiceAccount.class, client.serviceAccounts().inAnyNamespace().withLabel(labelKey, labelValue));
+            register(name, RoleBinding.class, client.rbac().roleBindings().inAnyNamespace().withLabel(labelKey, labelValue));
+            register(name, Secret.class, client.secrets().inAnyNamespace().withLabel(labelKey, labelValue));
+            register(name, NetworkPolicy.class, client.network().networkPolicies().inAnyNamespace().withLabel(labelKey, labelValue));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        kinds.values().forEach(clusterKinds -> clusterKinds.values().forEach(kind -> kind.informer.stop()));
+        kinds.clear();
+    }
+
+    /*
+     Returns the live object of the cluster with the given namespace and name, or null if it does not exist.
+     The namespace is null for cluster-scoped kinds. The fallback performs the equivalent GET
+     and is only invoked when the kind is not cached or not synced yet.
+     */
+    public <T extends HasMetadata> T get(String cluster, Class<T> type, String namespace, String name, Supplier<T> fallback) {
+
+        CachedKind<T> kind = kind(cluster, type);
+        if (kind == null || !kind.informer.hasSynced()) {
+            if (kind != null) {
+                kind.misses.increment();
+            }
+            return fallback.get();
+        }
+        kind.hits.increment();
+        return kind.informer.getIndexer().getByKey(namespace == null ? name : namespace + "/" + name);
+    }
+
+    /*
+     The cached object, or null when it is not cached or the kind is not synced. Never calls the API server
+     and does not count in the hit/miss statistics.
+     */
+    public <T extends HasMetadata> T peek(String cluster, Class<T> type, String namespace, String name) {
+
+        CachedKind<T> kind = kind(cluster, type);
+        if (kind == null || !kind.informer.hasSynced()) {
+            return null;
+        }
+        return kind.informer.getIndexer().getByKey(namespace == null ? name : namespace + "/" + name);
+    }
+
+    /*
+     True when lookups of the kind on the cluster are answered from memory.
+     */
+    public boolean isSynced(String cluster, Class<? extends HasMetadata> type) {
+        CachedKind<?> kind = kind(cluster, type);
+        return kind != null && kind.informer.hasSynced();
+    }
+
+    public <T extends HasMetadata> boolean exists(String cluster, Class<T> type, String namespace, String name, Supplier<T> fallback) {
+        return get(cluster, type, namespace, name, fallback) != null;
+    }
+
+    /*
+     Registers a listener for updates and deletes of cached objects, called from the informer threads with
+     the cluster and the new (or last known) state. Creates and periodic resyncs are not reported.
+     */
+    public void addChangeListener(BiConsumer<String, HasMetadata> listener) {
+        changeListeners.add(listener);
+    }
+
+    public List<CacheStats> stats() {
+
+        List<CacheStats> stats = new ArrayList<>();
+        kinds.forEach((cluster, clusterKinds) -> clusterKinds.values().forEach(kind -> stats.add(new CacheStats(
+                cluster,
+                kind.type.getSimpleName(),
+                kind.informer.hasSynced(),
+                kind.informer.lastSyncResourceVersion(),
+                kind.lastEventAtMillis,
+                kind.informer.getIndexer().list().size(),
+                kind.hits.sum(),
+                kind.misses.sum()))));
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends HasMetadata> CachedKind<T> kind(String cluster, Class<T> type) {
+        Map<Class<?>, CachedKind<?>> clusterKinds = kinds.get(cluster);
+        return clusterKinds == null ? null : (CachedKind<T>) clusterKinds.get(type);
+    }
+
+    private <T extends HasMetadata> void register(String cluster, Class<T> type, Informable<T> informable) {
+
+        CachedKind<T> kind = new CachedKind<>(cluster, type, changeListeners);
+        try {
+            kind.informer = informable.inform(kind, resyncPeriodMillis);
+            kinds.computeIfAbsent(cluster, ignored -> new ConcurrentHashMap<>()).put(type, kind);
+            log.info("Informer for {} on cluster {} started", type.getSimpleName(), cluster);
+        } catch (Exception e) {
+            // Keep going without this kind, lookups will fall back to the API server
+            log.error("Error starting informer for " + type.getSimpleName() + " on cluster " + cluster + ": " + e.getMessage());
+        }
+    }
+
+    private static final class CachedKind<T extends HasMetadata> implements ResourceEventHandler<T> {
+
+        private final String cluster;
+        private final Class<T> type;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private volatile SharedIndexInformer<T> informer;
+        private final List<BiConsumer<String, HasMetadata>> changeListeners;
+        private volatile long lastEventAtMillis;
+
+        private CachedKind(String cluster, Class<T> type, List<BiConsumer<String, HasMetadata>> changeListeners) {
+            this.cluster = cluster;
+            this.type = type;
+            this.changeListeners = changeListeners;
+        }
+
+        @Override
+        public void onAdd(T obj) {
+            lastEventAtMillis = System.currentTimeMillis();
+        }
+
+        @Override
+        public void onUpdate(T oldObj, T newObj) {
+            lastEventAtMillis = System.currentTimeMillis();
+            // A resync redelivers the same version, nothing changed
+            if (!Objects.equals(oldObj.getMetadata().getResourceVersion(), newObj.getMetadata().getResourceVersion())) {
+                notifyListeners(newObj);
+            }
+        }
+
+        @Override
+        public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+            lastEventAtMillis = System.currentTimeMillis();
+            notifyListeners(obj);
+        }
+
+        private void notifyListeners(T obj) {
+            for (BiConsumer<String, HasMetadata> listener : changeListeners) {
+                try {
+                    listener.accept(cluster, obj);
+                } catch (RuntimeException e) {
+                    log.error("Error notifying change of " + type.getSimpleName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.imricki.spring.ocp.cluster;
+
+import com.imricki.spring.ocp.config.ClusterProperties;
+import com.imricki.spring.ocp.ratelimit.AdaptiveRateLimiter;
+import com.imricki.spring.ocp.ratelimit.ApiMetricsInterceptor;
+import com.imricki.spring.ocp.ratelimit.ConcurrencyLimitingInterceptor;
+import com.imricki.spring.ocp.ratelimit.RateLimitProperties;
+import com.imricki.spring.ocp.ratelimit.RateLimitingInterceptor;
+import com.imricki.spring.ocp.utils.OCPResources;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ One tuned Kubernetes client per configured cluster, and the routing of environments to clusters.
+ Each cluster has its own HTTP dispatcher and connection pool, rate limiter and step threads,
+ so a slow or throttling API server cannot use up what the other clusters need.
+ */
+@Slf4j
+@Component
+public class KubernetesClientPool {
+
+    public static final String DEFAULT_CLUSTER = "default";
+
+    private final Map<String, KubernetesCluster> clusters = new LinkedHashMap<>();
+    private final Map<String, KubernetesCluster> clustersByEnvironment = new HashMap<>();
+
+    @Autowired
+    public KubernetesClientPool(final ClusterProperties clusterProperties, final RateLimitProperties rateLimitProperties,
+                                final OCPResources ocpResources, final MeterRegistry meterRegistry,
+                                @Value("${provisioning.steps.pool-size}") int stepPoolSize,
+                                @Value("${provisioning.steps.queue-capacity}") int stepQueueCapacity) {
+
+        Map<String, ClusterProperties.Cluster> configured = new LinkedHashMap<>(clusterProperties.getClusters());
+        if (!configured.containsKey(DEFAULT_CLUSTER)) {
+            ClusterProperties.Cluster defaults = new ClusterProperties.Cluster();
+            defaults.setMasterUrl(ocpResources.getOpenshiftApiUrl());
+            configured.put(DEFAULT_CLUSTER, defaults);
+        }
+        configured.forEach((name, cluster) -> {
+            KubernetesCluster kubernetesCluster = new KubernetesCluster(name,
+                    new DefaultKubernetesClient(httpClient(name, cluster, rateLimitProperties, meterRegistry), config(cluster)),
+                    stepTaskExecutor(name,
+                            cluster.getStepPoolSize() != null ? cluster.getStepPoolSize() : stepPoolSize, stepQueueCapacity));
+            clusters.put(name, kubernetesCluster);
+            for (String environment : cluster.getEnvironments()) {
+                clustersByEnvironment.put(environment.toLowerCase(Locale.ROOT), kubernetesCluster);
+            }
+            log.info("Kubernetes cluster {} at {} serves environments {}", name,
+                    kubernetesCluster.getClient().getMasterUrl(), cluster.getEnvironments());
+        });
+    }
+
+    /*
+     The cluster serving the environment, the default cluster for environments not assigned to any.
+     */
+    public KubernetesCluster forEnvironment(String environment) {
+        KubernetesCluster cluster = environment == null ? null : clustersByEnvironment.get(environment.toLowerCase(Locale.ROOT));
+        return cluster != null ? cluster : clusters.get(DEFAULT_CLUSTER);
+    }
+
+    public KubernetesCluster cluster(String name) {
+        KubernetesCluster cluster = clusters.get(name);
+        if (cluster == null) {
+            throw new IllegalArgumentException("Unknown cluster " + name);
+        }
+        return cluster;
+    }
+
+    public Collection<KubernetesCluster> clusters() {
+        return new ArrayList<>(clusters.values());
+    }
+
+    @PreDestroy
+    public void close() {
+        for (KubernetesCluster cluster : clusters.values()) {
+            cluster.getStepTaskExecutor().shutdown();
+            cluster.getClient().close();
+        }
+    }
+
+    private static Config config(ClusterProperties.Cluster cluster) {
+
+        // Starts from the auto-configuration (kubeconfig, service account, kubernetes.* properties)
+        ConfigBuilder builder = new ConfigBuilder()
+                .withConnectionTimeout(cluster.getConnectTimeoutMillis())
+                .withRequestTimeout(cluster.getRequestTimeoutMillis())
+                .withMaxConcurrentRequests(cluster.getMaxRequests())
+                .withMaxConcurrentRequestsPerHost(cluster.getMaxRequestsPerHost());
+        if (cluster.getMasterUrl() != null && !cluster.getMasterUrl().isBlank()) {
+            builder.withMasterUrl(cluster.getMasterUrl());
+        }
+        if (cluster.getOauthToken() != null && !cluster.getOauthToken().isBlank()) {
+            builder.withOauthToken(cluster.getOauthToken());
+        }
+        if (cluster.isTrustCerts()) {
+            builder.withTrustCerts(true);
+        }
+        return builder.build();
+    }
+
+    private static OkHttpClient httpClient(String name, ClusterProperties.Cluster cluster, RateLimitProperties rateLimitProperties,
+                                           MeterRegistry meterRegistry) {
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(cluster.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(cluster.getMaxRequestsPerHost());
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(name, rateLimitProperties, meterRegistry);
+        // Every API call goes through the cluster's rate limiter and the 429/Retry-After aware retries, each attempt
+        // takes one of the request slots (the dispatcher only bounds the async watches) and is timed by the metrics interceptor
+        return HttpClientUtils.createHttpClient(config(cluster), builder -> builder
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(cluster.getMaxIdleConnections(), cluster.getKeepAliveMillis(), TimeUnit.MILLISECONDS))
+                .addInterceptor(new RateLimitingInterceptor(name, rateLimiter, rateLimitProperties, meterRegistry))
+                .addInterceptor(new ConcurrencyLimitingInterceptor(Math.min(cluster.getMaxRequests(), cluster.getMaxRequestsPerHost())))
+                .addNetworkInterceptor(new ApiMetricsInterceptor(name, meterRegistry)));
+    }
+
+    /*
+     Bounded pool running the independent steps of provisioning runs against the cluster. Callers block on their
+     own run; when the queue is full the submitting thread runs the step itself.
+     */
+    private static ThreadPoolTaskExecutor stepTaskExecutor(String name, int poolSize, int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("provisioning-step-" + name + "-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,23 @@
+package com.imricki.spring.ocp.cluster;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import lombok.Getter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/*
+ A cluster of the pool: its client, with its own connection pool and rate limiter,
+ and its own pool of step threads, so a slow cluster only holds back its own work.
+ */
+@Getter
+public class KubernetesCluster {
+
+    private final String name;
+    private final KubernetesClient client;
+    private final ThreadPoolTaskExecutor stepTaskExecutor;
+
+    public KubernetesCluster(String name, KubernetesClient client, ThreadPoolTaskExecutor stepTaskExecutor) {
+        this.name = name;
+        this.client = client;
+        this.stepTaskExecutor = stepTaskExecutor;
+    }
+}
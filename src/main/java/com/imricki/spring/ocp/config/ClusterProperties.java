@@ -0,0 +1,44 @@
+package com.imricki.spring.ocp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Kubernetes clusters keyed by name, each serving the listed environments. Environments not listed go to the
+ "default" cluster, which is added when not configured: openshift.api.url if set, the usual kubeconfig /
+ in-cluster / kubernetes.* system property lookup otherwise.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "provisioning")
+public class ClusterProperties {
+
+    private Map<String, Cluster> clusters = new LinkedHashMap<>();
+
+    @Data
+    public static class Cluster {
+
+        // Empty: kubeconfig / in-cluster / kubernetes.* system properties
+        private String masterUrl;
+        private String oauthToken;
+        private boolean trustCerts;
+        private List<String> environments = new ArrayList<>();
+        // Calls on the wire at the same time; a cluster is one host, so the lower of the two applies to REST calls.
+        // Both also size the OkHttp dispatcher, which only limits the asynchronous watch connections
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = 32;
+        // Idle keep-alive connections kept open to the API server
+        private int maxIdleConnections = 16;
+        private long keepAliveMillis = 300000;
+        private int connectTimeoutMillis = 10000;
+        private int requestTimeoutMillis = 30000;
+        // Threads running provisioning steps against this cluster, provisioning.steps.pool-size when not set
+        private Integer stepPoolSize;
+    }
+}
@@ -0,0 +1,109 @@
+package com.imricki.spring.ocp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+@EnableScheduling
+public class ExecutorConfig {
+
+    /*
+     Pool used by the Kafka listener to provision the distinct keys of a batch in parallel.
+     Kept apart from the step pools of the clusters, whose threads the keys wait on.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor eventProcessingExecutor(@Value("${provisioning.kafka.pool-size}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("event-processing-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /*
+     Pool running the jobs submitted through the asynchronous API. The queue is bounded and new jobs
+     are rejected once it is full, so a burst of requests turns into 503s instead of unbounded backlog.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor provisioningJobTaskExecutor(@Value("${provisioning.jobs.pool-size}") int poolSize,
+                                                              @Value("${provisioning.jobs.queue-capacity}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("provisioning-job-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /*
+     Pool shared by bulk provisioning requests. Each request limits its own in-flight events,
+     and when the pool is saturated the request thread provisions the event itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor bulkProvisioningTaskExecutor(@Value("${provisioning.bulk.max-parallelism}") int maxParallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxParallelism);
+        executor.setMaxPoolSize(maxParallelism);
+        executor.setQueueCapacity(maxParallelism);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("bulk-provisioning-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /*
+     Pool shared by deprovisioning requests for their namespace deletes, each request limits its own in-flight deletes.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor deprovisioningTaskExecutor(@Value("${provisioning.deprovisioning.max-parallelism}") int maxParallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxParallelism);
+        executor.setMaxPoolSize(maxParallelism);
+        executor.setQueueCapacity(maxParallelism);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("deprovisioning-");
+        executor.initialize();
+        return executor;
+    }
+
+    /*
+     One long-running worker thread per reconcile worker, they take namespaces from the reconcile queue.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reconcileTaskExecutor(@Value("${provisioning.reconcile.workers}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("reconcile-");
+        executor.initialize();
+        return executor;
+    }
+
+    /*
+     Applies the objects of a Helm chart tier in parallel. Callers only wait for their own tier,
+     and when the pool is saturated the calling step thread applies the object itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor helmApplyTaskExecutor(@Value("${provisioning.helm.apply-parallelism}") int parallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setQueueCapacity(parallelism * 4);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("helm-apply-");
+        executor.initialize();
+        return executor;
+    }
+}
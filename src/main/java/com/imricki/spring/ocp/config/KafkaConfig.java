@@ -0,0 +1,66 @@
+package com.imricki.spring.ocp.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Slf4j
+@Configuration
+public class KafkaConfig {
+
+    /*
+     Picked up by the Boot listener container factory. A failed batch is retried from the first
+     failed record; once the attempts are exhausted the record is logged and published to the dead-letter
+     topic, on the same partition, with the exception in its headers, and the batch moves on.
+     A record that failed deserialization is not retried and is published with its original bytes.
+     */
+    @Bean
+    public DefaultErrorHandler kafkaErrorHandler(KafkaTemplate<Object, Object> kafkaTemplate,
+                                                 ProducerFactory<Object, Object> producerFactory,
+                                                 @Value("${provisioning.kafka.dead-letter-topic}") String deadLetterTopic,
+                                                 @Value("${provisioning.kafka.retry-interval-millis}") long retryIntervalMillis,
+                                                 @Value("${provisioning.kafka.max-retries}") long maxRetries) {
+        // The recoverer picks the first template whose value type matches, raw bytes must bypass the JsonSerializer
+        Map<Class<?>, KafkaOperations<?, ?>> templates = new LinkedHashMap<>();
+        templates.put(byte[].class, new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class)));
+        templates.put(Object.class, kafkaTemplate);
+        DeadLetterPublishingRecoverer deadLetter = new DeadLetterPublishingRecoverer(templates,
+                (record, e) -> new TopicPartition(deadLetterTopic, record.partition()));
+        return new DefaultErrorHandler((record, e) -> {
+            log.error("Giving up on record " + record.topic() + "-" + record.partition() + "@" + record.offset()
+                    + " (key " + record.key() + "), sending it to " + deadLetterTopic + ": " + e.getMessage());
+            deadLetter.accept(record, e);
+        }, new FixedBackOff(retryIntervalMillis, maxRetries));
+    }
+
+    /*
+     As many partitions as the commands topic, a dead letter keeps the partition of its record.
+     */
+    @Bean
+    public NewTopic provisionCommandsDeadLetterTopic(@Value("${provisioning.kafka.dead-letter-topic}") String deadLetterTopic,
+                                                     @Value("${provisioning.kafka.partitions}") int partitions) {
+        return TopicBuilder.name(deadLetterTopic).partitions(partitions).build();
+    }
+
+    @Bean
+    public NewTopic provisioningResultsTopic(@Value("${provisioning.kafka.results.topic}") String resultsTopic,
+                                             @Value("${provisioning.kafka.partitions}") int partitions) {
+        return TopicBuilder.name(resultsTopic).partitions(partitions).build();
+    }
+}
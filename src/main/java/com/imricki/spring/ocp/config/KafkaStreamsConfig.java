@@ -0,0 +1,38 @@
+package com.imricki.spring.ocp.config;
+
+import com.imricki.spring.ocp.streams.EventCoalescingTopology;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.Topology;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafkaStreams;
+import org.springframework.kafka.config.TopicBuilder;
+
+import java.time.Duration;
+
+@Configuration
+@EnableKafkaStreams
+@ConditionalOnProperty(name = "provisioning.kafka.coalescing.enabled", havingValue = "true")
+public class KafkaStreamsConfig {
+
+    @Bean
+    public Topology eventCoalescingTopology(StreamsBuilder streamsBuilder,
+                                            @Value("${provisioning.kafka.input-topic}") String inputTopic,
+                                            @Value("${provisioning.kafka.topic}") String commandsTopic,
+                                            @Value("${provisioning.kafka.coalescing.window-millis}") long windowMillis) {
+        EventCoalescingTopology.build(streamsBuilder, inputTopic, commandsTopic, Duration.ofMillis(windowMillis));
+        return streamsBuilder.build();
+    }
+
+    /*
+     Compacted, so the topic keeps at least the latest command of every namespace.
+     */
+    @Bean
+    public NewTopic provisionCommandsTopic(@Value("${provisioning.kafka.topic}") String commandsTopic,
+                                           @Value("${provisioning.kafka.partitions}") int partitions) {
+        return TopicBuilder.name(commandsTopic).partitions(partitions).compact().build();
+    }
+}
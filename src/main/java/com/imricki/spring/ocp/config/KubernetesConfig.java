@@ -1,6 +1,6 @@
 package com.imricki.spring.ocp.config;
 
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -8,8 +8,12 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class KubernetesConfig {
 
-    @Bean
-    public KubernetesClient kubernetesClient() {
-        return new DefaultKubernetesClient(); // You might need to configure it further
+    /*
+     Client of the default cluster, for the code that does not route by environment.
+     Closed by the pool, which owns it.
+     */
+    @Bean(destroyMethod = "")
+    public KubernetesClient kubernetesClient(KubernetesClientPool kubernetesClientPool) {
+        return kubernetesClientPool.cluster(KubernetesClientPool.DEFAULT_CLUSTER).getClient();
     }
 }
@@ -0,0 +1,29 @@
+package com.imricki.spring.ocp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Per-environment resource profiles, keyed by environment (int, cer, pre, pro, for).
+ Any value left out falls back to the global cpu-limit / memory-limit from OCPResources.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "provisioning")
+public class ResourceProfileProperties {
+
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    @Data
+    public static class Profile {
+
+        // Default and default request of every container, also the ResourceQuota limits.cpu
+        private String cpuLimit;
+        // ResourceQuota limits.memory
+        private String memoryLimit;
+    }
+}
@@ -1,13 +1,52 @@
 package com.imricki.spring.ocp.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.imricki.spring.ocp.cache.CacheStats;
+import com.imricki.spring.ocp.cache.ResourceCache;
 import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.plan.FileStateSnapshot;
+import com.imricki.spring.ocp.plan.PlanService;
+import com.imricki.spring.ocp.plan.PlanSummary;
+import com.imricki.spring.ocp.plan.StateSnapshot;
+import com.imricki.spring.ocp.service.BulkProvisioningResult;
+import com.imricki.spring.ocp.service.BulkProvisioningService;
+import com.imricki.spring.ocp.service.DeprovisioningResult;
+import com.imricki.spring.ocp.service.DeprovisioningService;
 import com.imricki.spring.ocp.service.OpenshiftProvisioner;
+import com.imricki.spring.ocp.service.ProvisioningJob;
+import com.imricki.spring.ocp.service.ProvisioningJobService;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import com.imricki.spring.ocp.service.StepListener;
+import com.imricki.spring.ocp.sharding.ShardAssignment;
+import com.imricki.spring.ocp.sharding.ShardCoordinator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.List;
 
 @RestController
 @RequestMapping("/ocp")
@@ -16,6 +55,27 @@ public class OpenshiftController {
     @Autowired
     private OpenshiftProvisioner openshiftProvisioner;
 
+    @Autowired
+    private ProvisioningJobService provisioningJobService;
+
+    @Autowired
+    private BulkProvisioningService bulkProvisioningService;
+
+    @Autowired
+    private DeprovisioningService deprovisioningService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ResourceCache resourceCache;
+
+    @Autowired
+    private ShardCoordinator shardCoordinator;
+
+    @Autowired
+    private PlanService planService;
+
     @GetMapping("/provisionresources")
     public ResponseEntity<?> provisionResources() {
 
@@ -23,8 +83,142 @@ public class OpenshiftController {
         event.setEnvironment("pre");
         event.setApplicationName("realme");
 
-        openshiftProvisioner.provisionResources(event);
+        ProvisioningReport report = openshiftProvisioner.provisionResources(event);
+
+        return new ResponseEntity<>(report, report.isSuccessful() ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    @PostMapping("/provisionresources")
+    public ResponseEntity<ProvisioningJob> submitProvisioning(@RequestBody NewApplicationEvent event) {
+
+        try {
+            ProvisioningJob job = provisioningJobService.submit(event);
+            return ResponseEntity.accepted().location(URI.create("/ocp/jobs/" + job.getId())).body(job);
+        } catch (TaskRejectedException e) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /*
+     Accepts a JSON array or newline-delimited JSON of events and streams back one NDJSON line per application
+     as soon as it is provisioned. The body is read lazily, so neither side is buffered in memory.
+     */
+    @PostMapping(value = "/provisionresources/bulk", produces = "application/x-ndjson",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<StreamingResponseBody> provisionBulk(InputStream body,
+                                                               @RequestParam(defaultValue = "8") int parallelism) {
+
+        ObjectWriter lineWriter = objectMapper.writerFor(BulkProvisioningResult.class);
+        StreamingResponseBody stream = outputStream -> {
+            try (MappingIterator<NewApplicationEvent> events = objectMapper.readerFor(NewApplicationEvent.class).readValues(body)) {
+                bulkProvisioningService.provision(events, parallelism, result -> {
+                    try {
+                        outputStream.write(lineWriter.writeValueAsBytes(result));
+                        outputStream.write('\n');
+                        outputStream.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(stream);
+    }
+
+    /*
+     Deletes every provisioned namespace of the environment and streams one NDJSON line when a delete is accepted
+     and one when the namespace is finally gone (or failed, or timed out).
+     */
+    @DeleteMapping(value = "/environments/{environment}", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> deprovisionEnvironment(@PathVariable String environment,
+                                                                        @RequestParam(defaultValue = "16") int parallelism,
+                                                                        @RequestParam(defaultValue = "600") long timeoutSeconds) {
+
+        ObjectWriter lineWriter = objectMapper.writerFor(DeprovisioningResult.class);
+        StreamingResponseBody stream = outputStream -> {
+            try {
+                deprovisioningService.deprovision(environment, parallelism, timeoutSeconds * 1000, result -> {
+                    try {
+                        outputStream.write(lineWriter.writeValueAsBytes(result));
+                        outputStream.write('\n');
+                        outputStream.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(stream);
+    }
+
+    /*
+     Dry run for the events of the multipart "events" part (JSON array or newline-delimited JSON): streams every object
+     that would be created, updated or, on request, left unchanged, as multi-document YAML or as NDJSON, followed by
+     a summary. The optional "snapshot" part is an export of the current state; without it the informer cache is used.
+     */
+    @PostMapping(value = "/plan", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = {"application/yaml", "application/x-ndjson"})
+    public ResponseEntity<StreamingResponseBody> plan(@RequestPart("events") MultipartFile events,
+                                                      @RequestPart(value = "snapshot", required = false) MultipartFile snapshot,
+                                                      @RequestParam(defaultValue = "yaml") String format,
+                                                      @RequestParam(defaultValue = "false") boolean includeUnchanged) {
+
+        boolean yaml = "yaml".equalsIgnoreCase(format);
+        if (!yaml && !"json".equalsIgnoreCase(format)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        ObjectWriter documentWriter = (yaml ? objectMapper.copyWith(new YAMLFactory()).writer() : objectMapper.writer().withRootValueSeparator("\n"))
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        StreamingResponseBody stream = outputStream -> {
+            StateSnapshot state = snapshot == null ? planService.cacheSnapshot() : FileStateSnapshot.load(snapshot.getInputStream());
+            BufferedOutputStream buffered = new BufferedOutputStream(outputStream, 65536);
+            try (MappingIterator<NewApplicationEvent> eventIterator = objectMapper.readerFor(NewApplicationEvent.class).readValues(events.getInputStream());
+                 SequenceWriter documents = documentWriter.writeValues(buffered)) {
+                PlanSummary summary = planService.plan(eventIterator, state, includeUnchanged, change -> {
+                    try {
+                        documents.write(change);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                documents.write(summary);
+            }
+            if (!yaml) {
+                buffered.write('\n');
+            }
+            buffered.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(yaml ? "application/yaml" : "application/x-ndjson")).body(stream);
+    }
+
+    /*
+     Runs handed over by other replicas. Answers 409 without running when this replica does not own the namespace.
+     */
+    @PostMapping("/shards/provisionresources")
+    public ResponseEntity<ProvisioningReport> provisionOwnedResources(@RequestBody NewApplicationEvent event) {
+
+        return openshiftProvisioner.provisionOwnedResources(event, StepListener.NONE)
+                .map(report -> new ResponseEntity<>(report, report.isSuccessful() ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.CONFLICT));
+    }
+
+    @GetMapping("/shards")
+    public ResponseEntity<ShardAssignment> shards() {
+        return new ResponseEntity<>(shardCoordinator.assignment(), HttpStatus.OK);
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<ProvisioningJob> job(@PathVariable String id) {
+        return provisioningJobService.find(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
 
-        return new ResponseEntity<>(HttpStatus.OK);
+    @GetMapping("/cache")
+    public ResponseEntity<List<CacheStats>> cacheStats() {
+        return new ResponseEntity<>(resourceCache.stats(), HttpStatus.OK);
     }
 }
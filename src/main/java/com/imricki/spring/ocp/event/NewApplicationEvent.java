@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
+import java.util.Locale;
 
 @Data
 @AllArgsConstructor
@@ -15,4 +16,12 @@ public class NewApplicationEvent implements Serializable {
     private String applicationName;
     private String environment; // INT, CER, PRE, PRO, FOR
     // Add more attributes as needed
+
+    /*
+     Name of the namespace provisioned for this application, also used as the ordering key:
+     events with the same key are always processed one after another. Lowercase, as namespace names must be.
+     */
+    public String namespaceName() {
+        return (environment + "-" + applicationName).toLowerCase(Locale.ROOT);
+    }
 }
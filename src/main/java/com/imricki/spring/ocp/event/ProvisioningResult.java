@@ -0,0 +1,30 @@
+package com.imricki.spring.ocp.event;
+
+import com.imricki.spring.ocp.service.StepResult;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Published once per provisioning run for dashboards and audit consumers.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProvisioningResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String namespaceName;
+    private String applicationName;
+    private String environment;
+    private boolean successful;
+    private long durationMillis;
+    private long finishedAtMillis;
+    private List<StepResult> steps;
+    // Kind/name -> resourceVersion of the managed objects, as known to the resource cache
+    private Map<String, String> resourceVersions;
+}
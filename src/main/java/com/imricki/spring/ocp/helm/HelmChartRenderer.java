@@ -0,0 +1,314 @@
+package com.imricki.spring.ocp.helm;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/*
+ Renders the configured chart with "helm template" and caches the result by chart version and hash of the values,
+ so every application sharing a chart and an environment reuses one rendering. The release is rendered into a
+ placeholder namespace; each application gets copies of the cached objects in which the placeholder, wherever
+ .Release.Namespace put it, is replaced by its namespace, stamped with its namespace and labels.
+ Cluster-scoped kinds are left out of the rendering: they are not the application's to own, and stamping them
+ with a namespace would re-apply one shared object for every application.
+ Values are the optional global values file followed by <environment-values-directory>/<environment>.yaml when present.
+ */
+@Slf4j
+@Component
+public class HelmChartRenderer {
+
+    private static final Pattern DOCUMENT_SEPARATOR = Pattern.compile("(?m)^---\\s*$");
+    private static final Pattern CHART_VERSION = Pattern.compile("(?m)^version:\\s*[\"']?([^\"'\\s]+)");
+    private static final int TAR_BLOCK = 512;
+    private static final String NAMESPACE_PLACEHOLDER = "ocp-provisioner-release-namespace";
+    private static final Set<String> CLUSTER_SCOPED_KINDS = Set.of("Namespace", "CustomResourceDefinition", "PriorityClass",
+            "StorageClass", "PersistentVolume", "ClusterRole", "ClusterRoleBinding", "IngressClass", "APIService",
+            "PodSecurityPolicy", "RuntimeClass", "MutatingWebhookConfiguration", "ValidatingWebhookConfiguration");
+
+    private final boolean enabled;
+    private final String binary;
+    private final Path chart;
+    private final String releaseName;
+    private final String valuesFile;
+    private final String environmentValuesDirectory;
+    private final long renderTimeoutMillis;
+    private final Map<RenderKey, CompletableFuture<List<List<String>>>> rendered = new ConcurrentHashMap<>();
+    private volatile ChartVersion chartVersion;
+
+    @Autowired
+    public HelmChartRenderer(@Value("${provisioning.helm.enabled}") boolean enabled,
+                             @Value("${provisioning.helm.binary}") String binary,
+                             @Value("${provisioning.helm.chart:}") String chart,
+                             @Value("${provisioning.helm.release-name}") String releaseName,
+                             @Value("${provisioning.helm.values-file:}") String valuesFile,
+                             @Value("${provisioning.helm.environment-values-directory:}") String environmentValuesDirectory,
+                             @Value("${provisioning.helm.render-timeout-millis}") long renderTimeoutMillis) {
+        this.enabled = enabled;
+        this.binary = binary;
+        this.chart = Paths.get(chart);
+        this.releaseName = releaseName;
+        this.valuesFile = valuesFile;
+        this.environmentValuesDirectory = environmentValuesDirectory;
+        this.renderTimeoutMillis = renderTimeoutMillis;
+        if (enabled && !Files.exists(this.chart)) {
+            throw new IllegalStateException("Helm chart " + chart + " not found");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     Copies of the rendered objects for the namespace, grouped by install tier in install order.
+     */
+    public List<List<HasMetadata>> manifests(String namespaceName, String environment, Map<String, String> labels) {
+
+        List<List<HasMetadata>> tiers = new ArrayList<>();
+        for (List<String> tier : render(environment)) {
+            List<HasMetadata> objects = new ArrayList<>(tier.size());
+            for (String json : tier) {
+                HasMetadata object = Serialization.unmarshal(json.replace(NAMESPACE_PLACEHOLDER, namespaceName));
+                ObjectMeta metadata = object.getMetadata();
+                metadata.setNamespace(namespaceName);
+                Map<String, String> objectLabels = metadata.getLabels() == null ? new LinkedHashMap<>() : new LinkedHashMap<>(metadata.getLabels());
+                objectLabels.putAll(labels);
+                metadata.setLabels(objectLabels);
+                objects.add(object);
+            }
+            tiers.add(objects);
+        }
+        return tiers;
+    }
+
+    /*
+     Serialized objects of the rendering for the environment, grouped by tier. Concurrent callers with the same key
+     wait for a single rendering; a failed rendering is not cached.
+     */
+    private List<List<String>> render(String environment) {
+
+        try {
+            List<Path> values = valuesFiles(environment);
+            RenderKey key = new RenderKey(chartVersion(), valuesHash(values));
+            CompletableFuture<List<List<String>>> future = new CompletableFuture<>();
+            CompletableFuture<List<List<String>>> existing = rendered.putIfAbsent(key, future);
+            if (existing != null) {
+                return existing.join();
+            }
+            try {
+                future.complete(template(values));
+                log.info("Rendered chart {} version {} for environment {}", chart, key.chartVersion, environment);
+            } catch (RuntimeException e) {
+                rendered.remove(key);
+                future.completeExceptionally(e);
+            }
+            return future.join();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error rendering chart " + chart + ": " + e.getMessage(), e);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private List<List<String>> template(List<Path> values) {
+
+        List<String> command = new ArrayList<>(List.of(binary, "template", releaseName, chart.toString(),
+                "--namespace", NAMESPACE_PLACEHOLDER));
+        for (Path file : values) {
+            command.add("--values");
+            command.add(file.toString());
+        }
+        String output;
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(false).start();
+            // Both streams drained in the background, so a hanging helm cannot block us past the timeout
+            CompletableFuture<byte[]> stdout = CompletableFuture.supplyAsync(() -> readAll(process.getInputStream()));
+            CompletableFuture<byte[]> stderr = CompletableFuture.supplyAsync(() -> readAll(process.getErrorStream()));
+            if (!process.waitFor(renderTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new IllegalStateException("helm template timed out after " + renderTimeoutMillis + " ms");
+            }
+            if (process.exitValue() != 0) {
+                throw new IllegalStateException("helm template failed: " + new String(stderr.join(), StandardCharsets.UTF_8).trim());
+            }
+            output = new String(stdout.join(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot run " + binary + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted rendering chart " + chart, e);
+        }
+
+        List<HasMetadata> objects = new ArrayList<>();
+        for (String document : DOCUMENT_SEPARATOR.split(output)) {
+            if (document.lines().allMatch(line -> line.isBlank() || line.trim().startsWith("#"))) {
+                continue;
+            }
+            HasMetadata object = Serialization.unmarshal(document);
+            if (CLUSTER_SCOPED_KINDS.contains(object.getKind())) {
+                log.warn("Skipping cluster-scoped {} {} of chart {}", object.getKind(), object.getMetadata().getName(), chart);
+                continue;
+            }
+            objects.add(object);
+        }
+        objects.sort(Comparator.comparingInt(object -> InstallOrder.tier(object.getKind())));
+
+        List<List<String>> tiers = new ArrayList<>();
+        int currentTier = -1;
+        for (HasMetadata object : objects) {
+            int tier = InstallOrder.tier(object.getKind());
+            if (tier != currentTier) {
+                tiers.add(new ArrayList<>());
+                currentTier = tier;
+            }
+            tiers.get(tiers.size() - 1).add(Serialization.asJson(object));
+        }
+        return tiers;
+    }
+
+    private List<Path> valuesFiles(String environment) {
+
+        List<Path> files = new ArrayList<>();
+        if (!valuesFile.isBlank()) {
+            files.add(Paths.get(valuesFile));
+        }
+        if (!environmentValuesDirectory.isBlank() && environment != null) {
+            Path environmentValues = Paths.get(environmentValuesDirectory, environment.toLowerCase(Locale.ROOT) + ".yaml");
+            if (Files.exists(environmentValues)) {
+                files.add(environmentValues);
+            }
+        }
+        return files;
+    }
+
+    private static String valuesHash(List<Path> files) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Path file : files) {
+                digest.update(Files.readAllBytes(file));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /*
+     Version from Chart.yaml of the chart directory or archive, re-read only when the chart changes on disk.
+     */
+    private String chartVersion() throws IOException {
+
+        Path chartYaml = Files.isDirectory(chart) ? chart.resolve("Chart.yaml") : chart;
+        long lastModified = Files.getLastModifiedTime(chartYaml).toMillis();
+        ChartVersion current = chartVersion;
+        if (current != null && current.lastModified == lastModified) {
+            return current.version;
+        }
+        String content = Files.isDirectory(chart) ? Files.readString(chartYaml) : chartYamlFromArchive(chart);
+        Matcher matcher = CHART_VERSION.matcher(content == null ? "" : content);
+        if (!matcher.find()) {
+            throw new IllegalStateException("No version in Chart.yaml of " + chart);
+        }
+        chartVersion = new ChartVersion(matcher.group(1), lastModified);
+        return chartVersion.version;
+    }
+
+    /*
+     Reads <chart>/Chart.yaml out of a .tgz chart archive, walking the tar headers.
+     */
+    private static String chartYamlFromArchive(Path archive) throws IOException {
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archive))) {
+            byte[] header = new byte[TAR_BLOCK];
+            while (in.readNBytes(header, 0, TAR_BLOCK) == TAR_BLOCK && header[0] != 0) {
+                String name = new String(header, 0, 100, StandardCharsets.US_ASCII).trim().replace("\0", "");
+                long size = Long.parseLong(new String(header, 124, 12, StandardCharsets.US_ASCII).trim().replace("\0", ""), 8);
+                long padded = (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+                if (name.endsWith("/Chart.yaml") && name.indexOf('/') == name.lastIndexOf('/')) {
+                    return new String(in.readNBytes((int) size), StandardCharsets.UTF_8);
+                }
+                in.skipNBytes(padded);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            in.transferTo(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading helm output: " + e.getMessage(), e);
+        }
+    }
+
+    private static final class RenderKey {
+
+        private final String chartVersion;
+        private final String valuesHash;
+
+        private RenderKey(String chartVersion, String valuesHash) {
+            this.chartVersion = chartVersion;
+            this.valuesHash = valuesHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) o;
+            return chartVersion.equals(other.chartVersion) && valuesHash.equals(other.valuesHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(chartVersion, valuesHash);
+        }
+    }
+
+    private static final class ChartVersion {
+
+        private final String version;
+        private final long lastModified;
+
+        private ChartVersion(String version, long lastModified) {
+            this.version = version;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.imricki.spring.ocp.helm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Groups kinds into tiers following the Helm install order: objects of a tier only depend on objects of earlier tiers,
+ so a tier can be applied in parallel once the previous one is done. Unknown kinds, custom resources included,
+ go in the last tier like Helm does.
+ */
+public final class InstallOrder {
+
+    private static final List<List<String>> TIERS = List.of(
+            List.of("Namespace", "CustomResourceDefinition", "PriorityClass", "StorageClass"),
+            List.of("NetworkPolicy", "ResourceQuota", "LimitRange", "PodSecurityPolicy", "PodDisruptionBudget", "ServiceAccount"),
+            List.of("Secret", "ConfigMap", "PersistentVolume", "PersistentVolumeClaim"),
+            List.of("ClusterRole", "ClusterRoleBinding", "Role", "RoleBinding"),
+            List.of("Service"),
+            List.of("DaemonSet", "Pod", "ReplicationController", "ReplicaSet", "Deployment", "StatefulSet", "Job", "CronJob",
+                    "HorizontalPodAutoscaler"),
+            List.of("IngressClass", "Ingress", "APIService"));
+
+    private static final Map<String, Integer> TIER_BY_KIND = new HashMap<>();
+
+    static {
+        for (int tier = 0; tier < TIERS.size(); tier++) {
+            for (String kind : TIERS.get(tier)) {
+                TIER_BY_KIND.put(kind, tier);
+            }
+        }
+    }
+
+    private InstallOrder() {
+        // Private constructor to prevent instantiation
+    }
+
+    public static int tier(String kind) {
+        return TIER_BY_KIND.getOrDefault(kind, TIERS.size());
+    }
+}
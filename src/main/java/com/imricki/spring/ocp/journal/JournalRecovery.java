@@ -0,0 +1,47 @@
+package com.imricki.spring.ocp.journal;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.ProvisioningJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/*
+ Resubmits the runs left open in the journal by the previous process as background jobs.
+ Each one only executes the steps its journal entry is missing.
+ */
+@Slf4j
+@Component
+public class JournalRecovery {
+
+    private final ProvisioningJournal provisioningJournal;
+    private final ProvisioningJobService provisioningJobService;
+
+    @Autowired
+    public JournalRecovery(final ProvisioningJournal provisioningJournal, final ProvisioningJobService provisioningJobService) {
+        this.provisioningJournal = provisioningJournal;
+        this.provisioningJobService = provisioningJobService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+
+        List<NewApplicationEvent> unfinished = provisioningJournal.unfinished();
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        log.info("Resuming {} unfinished provisioning runs from the journal...", unfinished.size());
+        for (NewApplicationEvent event : unfinished) {
+            try {
+                provisioningJobService.submit(event);
+            } catch (Exception e) {
+                // Still open in the journal, picked up by the next retry of the event or the next restart
+                log.error("Error resuming provisioning of " + event.namespaceName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.imricki.spring.ocp.journal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.ProvisioningStep;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ Append-only log of provisioning progress, so a namespace left half-built by a crash or a rolling restart
+ is resumed from its first missing step instead of being provisioned again from scratch.
+
+ Every run writes BEGIN (with the event), one STEP record per completed step and END once it returns, whether
+ its steps succeeded or not: a failed run has been reported and is retried as a new run, only a run cut short
+ by the process going away stays open.
+ Records are lines prefixed with their CRC32; a torn tail left by a crash is detected and truncated on load.
+ Appends only go to the page cache and a scheduled flush fsyncs them in one batch, so the steps of many
+ concurrent runs share a single fsync. Losing the last unflushed records only means redoing those steps,
+ which are idempotent. When the active segment grows past its limit, the still-unfinished runs are
+ written to a fresh segment and the old ones are deleted, so the journal stays proportional to open work.
+ */
+@Slf4j
+@Component
+public class ProvisioningJournal {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final char SEPARATOR = '\t';
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final Map<String, OpenRun> openRuns = new LinkedHashMap<>();
+    // Held while a segment is fsynced or closed, so compaction never closes a channel under a running flush
+    private final Object channelLock = new Object();
+    private FileChannel segment;
+    private long segmentSequence;
+    private boolean dirty;
+
+    @Autowired
+    public ProvisioningJournal(final ObjectMapper objectMapper,
+                               @Value("${provisioning.journal.enabled}") boolean enabled,
+                               @Value("${provisioning.journal.directory}") String directory,
+                               @Value("${provisioning.journal.segment-max-bytes}") long segmentMaxBytes) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentMaxBytes = segmentMaxBytes;
+        if (!enabled) {
+            log.info("Provisioning journal disabled, interrupted runs will not be resumed.");
+            return;
+        }
+        try {
+            Files.createDirectories(this.directory);
+            recover();
+            compact();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open provisioning journal in " + this.directory + ": " + e.getMessage(), e);
+        }
+        log.info("Provisioning journal opened in {}, {} unfinished runs", this.directory, openRuns.size());
+    }
+
+    /*
+     Records the start of a run and returns the steps a previous, unfinished run of the same namespace
+     already completed. A namespace whose last run finished starts over with an empty set.
+     */
+    public synchronized Set<ProvisioningStep> begin(NewApplicationEvent event) {
+
+        if (!enabled) {
+            return Collections.emptySet();
+        }
+        String namespaceName = event.namespaceName();
+        OpenRun run = openRuns.get(namespaceName);
+        if (run == null) {
+            run = new OpenRun(event);
+            openRuns.put(namespaceName, run);
+            append(Type.BEGIN, namespaceName, toJson(event));
+        }
+        return EnumSet.copyOf(run.completed);
+    }
+
+    public synchronized void stepCompleted(String namespaceName, ProvisioningStep step) {
+
+        OpenRun run = enabled ? openRuns.get(namespaceName) : null;
+        if (run != null && run.completed.add(step)) {
+            append(Type.STEP, namespaceName, step.name());
+        }
+    }
+
+    public synchronized void end(String namespaceName) {
+
+        if (enabled && openRuns.remove(namespaceName) != null) {
+            append(Type.END, namespaceName, "");
+        }
+    }
+
+    /*
+     Events of the runs that were still open when the journal was last closed, in the order they began.
+     */
+    public synchronized List<NewApplicationEvent> unfinished() {
+        return openRuns.values().stream().map(run -> run.event).collect(Collectors.toList());
+    }
+
+    @Scheduled(fixedDelayString = "${provisioning.journal.flush-interval-millis}")
+    public void flush() {
+
+        FileChannel channel;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            channel = segment;
+        }
+        // Outside the journal lock, so appends keep going while the disk catches up
+        try {
+            synchronized (channelLock) {
+                // Closed by a compaction meanwhile, which already fsynced its records into the new segment
+                if (channel.isOpen()) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error flushing provisioning journal: " + e.getMessage());
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+
+        if (segment == null) {
+            return;
+        }
+        try {
+            synchronized (channelLock) {
+                segment.force(false);
+                segment.close();
+            }
+        } catch (IOException e) {
+            log.error("Error closing provisioning journal: " + e.getMessage());
+        }
+        segment = null;
+    }
+
+    private void append(Type type, String namespaceName, String payload) {
+
+        try {
+            if (segment.size() >= segmentMaxBytes) {
+                compact();
+            }
+            write(segment, type, namespaceName, payload);
+            dirty = true;
+        } catch (IOException e) {
+            // The run goes on without durability rather than failing the provisioning itself
+            log.error("Error writing provisioning journal for " + namespaceName + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     Rewrites the open runs into a new segment, fsyncs it and only then deletes the older segments,
+     so a crash at any point leaves at least one complete copy of the state.
+     */
+    private void compact() throws IOException {
+
+        List<Path> previous = segments();
+        segmentSequence++;
+        Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentSequence, SEGMENT_SUFFIX));
+        FileChannel next = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        for (Map.Entry<String, OpenRun> entry : openRuns.entrySet()) {
+            write(next, Type.BEGIN, entry.getKey(), toJson(entry.getValue().event));
+            for (ProvisioningStep step : entry.getValue().completed) {
+                write(next, Type.STEP, entry.getKey(), step.name());
+            }
+        }
+        next.force(true);
+        if (segment != null) {
+            synchronized (channelLock) {
+                segment.close();
+            }
+        }
+        segment = next;
+        dirty = false;
+        for (Path old : previous) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private void recover() throws IOException {
+
+        for (Path path : segments()) {
+            segmentSequence = Math.max(segmentSequence, sequence(path));
+            int records = 0;
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!apply(line)) {
+                        // Torn or corrupt record: everything after it in this segment was never acknowledged
+                        log.warn("Provisioning journal segment {} truncated after {} records", path.getFileName(), records);
+                        break;
+                    }
+                    records++;
+                }
+            }
+        }
+    }
+
+    private boolean apply(String line) {
+
+        int crcEnd = line.indexOf(SEPARATOR);
+        if (crcEnd < 0) {
+            return false;
+        }
+        String record = line.substring(crcEnd + 1);
+        if (!line.substring(0, crcEnd).equals(Long.toHexString(crc(record)))) {
+            return false;
+        }
+        String[] fields = record.split(String.valueOf(SEPARATOR), 3);
+        if (fields.length != 3) {
+            return false;
+        }
+        try {
+            switch (Type.valueOf(fields[0])) {
+                case BEGIN:
+                    openRuns.put(fields[1], new OpenRun(objectMapper.readValue(fields[2], NewApplicationEvent.class)));
+                    break;
+                case STEP:
+                    OpenRun run = openRuns.get(fields[1]);
+                    if (run != null) {
+                        run.completed.add(ProvisioningStep.valueOf(fields[2]));
+                    }
+                    break;
+                case END:
+                    openRuns.remove(fields[1]);
+                    break;
+            }
+            return true;
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    private void write(FileChannel channel, Type type, String namespaceName, String payload) throws IOException {
+
+        String record = type.name() + SEPARATOR + namespaceName + SEPARATOR + payload;
+        ByteBuffer buffer = ByteBuffer.wrap((Long.toHexString(crc(record)) + SEPARATOR + record + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(sequence(a), sequence(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static long crc(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private String toJson(NewApplicationEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize event for " + event.namespaceName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private enum Type {
+        BEGIN, STEP, END
+    }
+
+    private static final class OpenRun {
+
+        private final NewApplicationEvent event;
+        private final EnumSet<ProvisioningStep> completed = EnumSet.noneOf(ProvisioningStep.class);
+
+        private OpenRun(NewApplicationEvent event) {
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.imricki.spring.ocp.listener;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.OpenshiftProvisioner;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.log.LogAccessor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@Component
+public class NewApplicationEventListener {
+
+    private static final int NONE_FAILED = Integer.MAX_VALUE;
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(NewApplicationEventListener.class);
+
+    private final OpenshiftProvisioner openshiftProvisioner;
+    private final TaskExecutor eventProcessingExecutor;
+
+    @Autowired
+    public NewApplicationEventListener(final OpenshiftProvisioner openshiftProvisioner,
+                                       @Qualifier("eventProcessingExecutor") final TaskExecutor eventProcessingExecutor) {
+        this.openshiftProvisioner = openshiftProvisioner;
+        this.eventProcessingExecutor = eventProcessingExecutor;
+    }
+
+    /*
+     Consumes a poll worth of events at once. Events are grouped by namespace key: different keys are
+     provisioned in parallel, events sharing a key run strictly in offset order. The container commits
+     the batch offsets only when this method returns; on failure the offsets before the first failed
+     record are committed and the batch is redelivered from there. A record that failed deserialization
+     counts as failed with its DeserializationException, which the error handler sends straight to the dead-letter topic.
+     */
+    @KafkaListener(id = "new-application-events", idIsGroup = false, topics = "${provisioning.kafka.topic}",
+            autoStartup = "${provisioning.kafka.auto-startup}")
+    public void onNewApplicationEvents(List<ConsumerRecord<String, NewApplicationEvent>> records) {
+
+        Map<String, List<Integer>> indexesByKey = new LinkedHashMap<>();
+        int firstUndeserializable = NONE_FAILED;
+        DeserializationException deserializationFailure = null;
+        for (int i = 0; i < records.size(); i++) {
+            NewApplicationEvent event = records.get(i).value();
+            if (event == null) {
+                DeserializationException failure = SerializationUtils.getExceptionFromHeader(records.get(i),
+                        SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+                if (failure == null) {
+                    log.error("Skipping record without a value at offset {}", records.get(i).offset());
+                } else if (firstUndeserializable == NONE_FAILED) {
+                    // ErrorHandlingDeserializer already logged the cause
+                    firstUndeserializable = i;
+                    deserializationFailure = failure;
+                }
+                continue;
+            }
+            indexesByKey.computeIfAbsent(event.namespaceName(), key -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Integer>> keyFutures = new ArrayList<>(indexesByKey.size());
+        indexesByKey.values().forEach(indexes -> keyFutures.add(
+                CompletableFuture.supplyAsync(() -> provisionInOrder(records, indexes), eventProcessingExecutor)));
+
+        int firstFailed = keyFutures.stream().mapToInt(CompletableFuture::join).min().orElse(NONE_FAILED);
+        if (firstUndeserializable < firstFailed) {
+            throw new BatchListenerFailedException("Undeserializable record at offset " + records.get(firstUndeserializable).offset(),
+                    deserializationFailure, firstUndeserializable);
+        }
+        if (firstFailed != NONE_FAILED) {
+            throw new BatchListenerFailedException("Provisioning failed for " + records.get(firstFailed).value().namespaceName(), firstFailed);
+        }
+        log.info("Provisioned {} events for {} namespaces", records.size(), indexesByKey.size());
+    }
+
+    /*
+     Provisions the events of one key sequentially and returns the batch index of the first failure,
+     later events of the same key are not attempted so that they are redelivered in order.
+     */
+    private int provisionInOrder(List<ConsumerRecord<String, NewApplicationEvent>> records, List<Integer> indexes) {
+
+        for (int index : indexes) {
+            try {
+                ProvisioningReport report = openshiftProvisioner.provisionResources(records.get(index).value());
+                if (!report.isSuccessful()) {
+                    return index;
+                }
+            } catch (Exception e) {
+                log.error("Error provisioning record at offset " + records.get(index).offset() + ": " + e.getMessage());
+                return index;
+            }
+        }
+        return NONE_FAILED;
+    }
+}
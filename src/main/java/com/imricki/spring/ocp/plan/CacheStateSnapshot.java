@@ -0,0 +1,30 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.imricki.spring.ocp.cache.ResourceCache;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+/*
+ The state the informers of ResourceCache hold right now. Kinds that are not cached or not synced yet are not covered.
+ */
+public class CacheStateSnapshot implements StateSnapshot {
+
+    private final ResourceCache resourceCache;
+
+    public CacheStateSnapshot(ResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+    }
+
+    @Override
+    public boolean covers(String cluster, Class<? extends HasMetadata> type) {
+        return resourceCache.isSynced(cluster, type);
+    }
+
+    @Override
+    public ObjectNode get(String cluster, HasMetadata desired) {
+        HasMetadata live = resourceCache.peek(cluster, desired.getClass(), desired.getMetadata().getNamespace(),
+                desired.getMetadata().getName());
+        return live == null ? null : Serialization.jsonMapper().valueToTree(live);
+    }
+}
@@ -0,0 +1,110 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ State exported from a cluster, e.g. with kubectl get -o yaml: multi-document YAML, a JSON array or newline-delimited
+ JSON, where List documents are expanded into their items. The file stands for the state of every cluster and kind,
+ so an object missing from it is planned as a create. Objects are kept as compact JSON, without status and managed
+ fields, and only parsed back when a plan looks them up.
+ */
+@Slf4j
+public class FileStateSnapshot implements StateSnapshot {
+
+    private static final ObjectMapper YAML_MAPPER = new YAMLMapper();
+
+    private final Map<String, byte[]> objects = new HashMap<>();
+
+    public static FileStateSnapshot load(InputStream input) throws IOException {
+
+        FileStateSnapshot snapshot = new FileStateSnapshot();
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        ObjectMapper mapper = isJson(buffered) ? Serialization.jsonMapper() : YAML_MAPPER;
+        try (MappingIterator<JsonNode> documents = mapper.readerFor(JsonNode.class).readValues(buffered)) {
+            while (documents.hasNext()) {
+                snapshot.add(documents.next());
+            }
+        }
+        log.info("Loaded state snapshot with {} objects", snapshot.objects.size());
+        return snapshot;
+    }
+
+    @Override
+    public boolean covers(String cluster, Class<? extends HasMetadata> type) {
+        return true;
+    }
+
+    @Override
+    public ObjectNode get(String cluster, HasMetadata desired) {
+
+        byte[] json = objects.get(key(desired.getKind(), desired.getMetadata().getNamespace(), desired.getMetadata().getName()));
+        if (json == null) {
+            return null;
+        }
+        try {
+            return (ObjectNode) Serialization.jsonMapper().readTree(json);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable snapshot object: " + e.getMessage(), e);
+        }
+    }
+
+    private void add(JsonNode document) throws IOException {
+
+        if (document == null || !document.isObject()) {
+            // Empty documents, e.g. a trailing ---
+            return;
+        }
+        JsonNode items = document.path("items");
+        if (document.path("kind").asText().endsWith("List") && items.isArray()) {
+            for (JsonNode item : items) {
+                add(item);
+            }
+            return;
+        }
+        ObjectNode object = (ObjectNode) document;
+        String kind = object.path("kind").asText(null);
+        String name = object.path("metadata").path("name").asText(null);
+        if (kind == null || name == null) {
+            return;
+        }
+        object.remove("status");
+        if (object.get("metadata").isObject()) {
+            ((ObjectNode) object.get("metadata")).remove("managedFields");
+        }
+        objects.put(key(kind, object.path("metadata").path("namespace").asText(null), name),
+                Serialization.jsonMapper().writeValueAsBytes(object));
+    }
+
+    private static String key(String kind, String namespace, String name) {
+        return kind + "/" + (namespace == null ? "" : namespace) + "/" + name;
+    }
+
+    private static boolean isJson(BufferedInputStream input) throws IOException {
+
+        input.mark(1 << 16);
+        try {
+            int next;
+            while ((next = input.read()) != -1) {
+                if (!Character.isWhitespace(next)) {
+                    return next == '{' || next == '[';
+                }
+            }
+            return false;
+        } finally {
+            input.reset();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class PlanChange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String cluster;
+    // Namespace of the application the object is provisioned for
+    private String namespaceName;
+    private Action action;
+    private String kind;
+    private String namespace;
+    private String name;
+    // Desired fields the live object does not hold
+    private List<String> differences;
+    // What a run would write, spec hash included, Secret values redacted; only for CREATE, UPDATE and UNKNOWN
+    private HasMetadata manifest;
+
+    public enum Action {
+        CREATE,
+        UPDATE,
+        // Nothing would be written, though the differences of a create-only kind are still listed
+        UNCHANGED,
+        // The snapshot does not cover the kind, e.g. a cache that is not synced
+        UNKNOWN
+    }
+}
@@ -0,0 +1,152 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.helm.HelmChartRenderer;
+import com.imricki.spring.ocp.reconcile.DriftDetector;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.ManifestHasher;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/*
+ Dry run of provisioning: renders every object ProvisioningUtils would write for a stream of events and tells,
+ by the same rules, whether the run would create it, replace it or leave it alone. Nothing is sent to a cluster.
+ Events are pulled one at a time and every change is handed to the callback right away, so memory use does not
+ grow with the number of events, only the snapshot is held. Secret values never leave the service: the manifest of
+ a Secret lists its keys with a short hash of each value instead, enough to tell whether two plans would write the same.
+ */
+@Slf4j
+@Service
+public class PlanService {
+
+    // ProvisioningUtils creates these when absent and never replaces them
+    private static final Set<Class<? extends HasMetadata>> CREATE_ONLY = Set.of(Secret.class);
+
+    private final ManifestFactory manifestFactory;
+    private final HelmChartRenderer helmChartRenderer;
+    private final KubernetesClientPool kubernetesClientPool;
+    private final ResourceCache resourceCache;
+
+    @Autowired
+    public PlanService(final ManifestFactory manifestFactory, final HelmChartRenderer helmChartRenderer,
+                       final KubernetesClientPool kubernetesClientPool, final ResourceCache resourceCache) {
+        this.manifestFactory = manifestFactory;
+        this.helmChartRenderer = helmChartRenderer;
+        this.kubernetesClientPool = kubernetesClientPool;
+        this.resourceCache = resourceCache;
+    }
+
+    public StateSnapshot cacheSnapshot() {
+        return new CacheStateSnapshot(resourceCache);
+    }
+
+    /*
+     Plans every event against the snapshot. The callback is invoked on the calling thread, in event order and in
+     provisioning order within an event; unchanged objects are only reported when asked for.
+     */
+    public PlanSummary plan(Iterator<NewApplicationEvent> events, StateSnapshot snapshot, boolean includeUnchanged,
+                            Consumer<PlanChange> onChange) {
+
+        long start = System.currentTimeMillis();
+        PlanSummary summary = new PlanSummary();
+        while (events.hasNext()) {
+            NewApplicationEvent event = events.next();
+            String namespaceName = event.namespaceName();
+            String cluster = kubernetesClientPool.forEnvironment(event.getEnvironment()).getName();
+
+            for (HasMetadata desired : manifestFactory.desiredState(namespaceName, event.getEnvironment())) {
+                report(plan(cluster, namespaceName, desired, snapshot), summary, includeUnchanged, onChange);
+            }
+            if (helmChartRenderer.isEnabled()) {
+                for (List<HasMetadata> tier : helmChartRenderer.manifests(namespaceName, event.getEnvironment(), manifestFactory.applicationLabels())) {
+                    for (HasMetadata desired : tier) {
+                        report(plan(cluster, namespaceName, desired, snapshot), summary, includeUnchanged, onChange);
+                    }
+                }
+            }
+            summary.setApplications(summary.getApplications() + 1);
+        }
+        summary.setDurationMillis(System.currentTimeMillis() - start);
+        log.info("Planned {} applications: {} to create, {} to update, {} unchanged, {} unknown", summary.getApplications(),
+                summary.getCreate(), summary.getUpdate(), summary.getUnchanged(), summary.getUnknown());
+        return summary;
+    }
+
+    private PlanChange plan(String cluster, String namespaceName, HasMetadata desired, StateSnapshot snapshot) {
+
+        // Stamped like a run would, so the manifest in the plan is exactly what would be written
+        String hash = ManifestHasher.stamp(desired);
+        PlanChange change = new PlanChange(cluster, namespaceName, null, desired.getKind(),
+                desired.getMetadata().getNamespace(), desired.getMetadata().getName(), null, null);
+
+        if (!snapshot.covers(cluster, desired.getClass())) {
+            change.setAction(PlanChange.Action.UNKNOWN);
+            change.setManifest(redacted(desired));
+            return change;
+        }
+        ObjectNode live = snapshot.get(cluster, desired);
+        if (live == null) {
+            change.setAction(PlanChange.Action.CREATE);
+            change.setManifest(redacted(desired));
+        } else if (CREATE_ONLY.contains(desired.getClass())) {
+            change.setAction(PlanChange.Action.UNCHANGED);
+            change.setDifferences(DriftDetector.differences(desired, live));
+        } else if (hash.equals(live.path("metadata").path("annotations").path(ManifestHasher.SPEC_HASH_ANNOTATION).asText(null))) {
+            change.setAction(PlanChange.Action.UNCHANGED);
+        } else {
+            // A different hash is replaced even when every field still matches, e.g. objects written before the hash existed
+            List<String> differences = DriftDetector.differences(desired, live);
+            change.setAction(PlanChange.Action.UPDATE);
+            change.setDifferences(differences.isEmpty()
+                    ? List.of("metadata.annotations." + ManifestHasher.SPEC_HASH_ANNOTATION) : differences);
+            change.setManifest(redacted(desired));
+        }
+        return change;
+    }
+
+    /*
+     The manifest as shown in the plan; a Secret is copied with every value of data and stringData
+     replaced by "sha256:" and the first 12 hex digits of the hash of the value as written.
+     */
+    private static HasMetadata redacted(HasMetadata desired) {
+
+        if (!(desired instanceof Secret secret)) {
+            return desired;
+        }
+        return new SecretBuilder(secret)
+                .withData(redacted(secret.getData()))
+                .withStringData(redacted(secret.getStringData()))
+                .build();
+    }
+
+    private static Map<String, String> redacted(Map<String, String> values) {
+
+        if (values == null) {
+            return null;
+        }
+        Map<String, String> redacted = new LinkedHashMap<>();
+        values.forEach((key, value) -> redacted.put(key, value == null ? null : "sha256:" + ManifestHasher.sha256(value).substring(0, 12)));
+        return redacted;
+    }
+
+    private static void report(PlanChange change, PlanSummary summary, boolean includeUnchanged, Consumer<PlanChange> onChange) {
+        summary.count(change.getAction());
+        if (includeUnchanged || change.getAction() != PlanChange.Action.UNCHANGED) {
+            onChange.accept(change);
+        }
+    }
+}
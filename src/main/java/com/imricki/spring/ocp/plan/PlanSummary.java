@@ -0,0 +1,28 @@
+package com.imricki.spring.ocp.plan;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+public class PlanSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private long applications;
+    private long create;
+    private long update;
+    private long unchanged;
+    private long unknown;
+    private long durationMillis;
+
+    public void count(PlanChange.Action action) {
+        switch (action) {
+            case CREATE -> create++;
+            case UPDATE -> update++;
+            case UNCHANGED -> unchanged++;
+            case UNKNOWN -> unknown++;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+
+/*
+ Current state a plan is diffed against. Lookups never call the API server.
+ */
+public interface StateSnapshot {
+
+    /*
+     Whether the snapshot knows the objects of the kind on the cluster; when it does not, get says nothing.
+     */
+    boolean covers(String cluster, Class<? extends HasMetadata> type);
+
+    /*
+     The live counterpart of the desired object as a JSON tree, or null when it does not exist.
+     */
+    ObjectNode get(String cluster, HasMetadata desired);
+}
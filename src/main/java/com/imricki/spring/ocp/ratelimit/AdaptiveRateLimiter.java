@@ -0,0 +1,135 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ Limiter for every call to the API server of one cluster. A token bucket caps the request rate, and an
+ AIMD window caps the calls in flight: the window grows by roughly one call per round of successful
+ responses and is cut multiplicatively when the server answers 429 or 5xx or does not answer at all. A Retry-After from the
+ server pauses all callers, not only the one that got it.
+ */
+@Slf4j
+public class AdaptiveRateLimiter {
+
+    // Responses to calls sent in the same burst all report the same overload, cut the window once for them
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final double minConcurrency;
+    private final double maxConcurrency;
+    private final double decreaseFactor;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private double concurrencyLimit;
+    private int inFlight;
+    private long pausedUntilNanos;
+    private long lastDecreaseNanos;
+    private long throttledResponses;
+
+    public AdaptiveRateLimiter(String cluster, RateLimitProperties properties, final MeterRegistry meterRegistry) {
+        this.permitsPerSecond = properties.getPermitsPerSecond();
+        this.burst = properties.getBurst();
+        this.minConcurrency = properties.getMinConcurrency();
+        this.maxConcurrency = properties.getMaxConcurrency();
+        this.decreaseFactor = properties.getDecreaseFactor();
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.concurrencyLimit = properties.getInitialConcurrency();
+        this.lastDecreaseNanos = lastRefillNanos - DECREASE_INTERVAL_NANOS;
+
+        Gauge.builder("kubernetes.api.ratelimit.concurrency.limit", this, AdaptiveRateLimiter::getConcurrencyLimit)
+                .description("Current AIMD cap on API calls in flight")
+                .tag("cluster", cluster)
+                .register(meterRegistry);
+        Gauge.builder("kubernetes.api.ratelimit.in.flight", this, AdaptiveRateLimiter::getInFlight)
+                .description("API calls currently in flight")
+                .tag("cluster", cluster)
+                .register(meterRegistry);
+        Gauge.builder("kubernetes.api.ratelimit.throttled", this, AdaptiveRateLimiter::getThrottledResponses)
+                .description("Calls answered with 429 or 5xx or not answered at all since startup")
+                .tag("cluster", cluster)
+                .register(meterRegistry);
+    }
+
+    /*
+     Blocks until the call may be sent: no pause is active, a token is available and the in-flight
+     window has room. Every successful acquire must be paired with exactly one release.
+     */
+    public synchronized void acquire() throws InterruptedException {
+
+        while (true) {
+            long now = System.nanoTime();
+            refill(now);
+            long waitNanos = 0;
+            if (pausedUntilNanos - now > 0) {
+                waitNanos = pausedUntilNanos - now;
+            } else if (tokens < 1) {
+                waitNanos = (long) ((1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            } else if (inFlight >= (int) concurrencyLimit) {
+                // Woken up by release
+                wait();
+                continue;
+            }
+            if (waitNanos <= 0) {
+                tokens -= 1;
+                inFlight++;
+                return;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+        }
+    }
+
+    /*
+     Ends a call. Throttled (429), server error and failed calls shrink the window, anything else grows it.
+     */
+    public synchronized void release(boolean throttled) {
+
+        inFlight--;
+        if (throttled) {
+            throttledResponses++;
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+                lastDecreaseNanos = now;
+                concurrencyLimit = Math.max(minConcurrency, concurrencyLimit * decreaseFactor);
+                log.debug("API server throttling, concurrency limit lowered to {}", concurrencyLimit);
+            }
+        } else {
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+        }
+        notifyAll();
+    }
+
+    /*
+     Holds back every caller until the given delay has elapsed, as requested by a Retry-After header.
+     */
+    public synchronized void pause(long delayMillis) {
+
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        if (until - pausedUntilNanos > 0) {
+            pausedUntilNanos = until;
+        }
+    }
+
+    public synchronized double getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getThrottledResponses() {
+        return throttledResponses;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1) * permitsPerSecond);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,73 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ OkHttp network interceptor timing every HTTP exchange with the API server, tagged by verb, resource and
+ status. It sits below the rate limiter and the retries, so it measures the control plane alone; the time
+ spent waiting in our own limiter is recorded separately by RateLimitingInterceptor.
+ */
+public class ApiMetricsInterceptor implements Interceptor {
+
+    private final String cluster;
+    private final MeterRegistry meterRegistry;
+
+    public ApiMetricsInterceptor(String cluster, final MeterRegistry meterRegistry) {
+        this.cluster = cluster;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+
+        Request request = chain.request();
+        String verb = "true".equals(request.url().queryParameter("watch")) ? "WATCH" : request.method();
+        long start = System.nanoTime();
+        String status = "IO_ERROR";
+        try {
+            Response response = chain.proceed(request);
+            status = String.valueOf(response.code());
+            return response;
+        } finally {
+            Timer.builder("kubernetes.api.requests")
+                    .description("HTTP exchanges with the Kubernetes API server")
+                    .tag("cluster", cluster)
+                    .tag("verb", verb)
+                    .tag("resource", resource(request.url().pathSegments()))
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /*
+     Resource name out of /api/{version}/... or /apis/{group}/{version}/..., skipping the namespace prefix.
+     */
+    static String resource(List<String> segments) {
+
+        int start;
+        if (!segments.isEmpty() && "api".equals(segments.get(0))) {
+            start = 2;
+        } else if (!segments.isEmpty() && "apis".equals(segments.get(0))) {
+            start = 3;
+        } else {
+            return "other";
+        }
+        if (segments.size() <= start) {
+            return "discovery";
+        }
+        if ("namespaces".equals(segments.get(start)) && segments.size() > start + 2) {
+            return segments.get(start + 2);
+        }
+        return segments.get(start);
+    }
+}
@@ -0,0 +1,44 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/*
+ Hard cap on the calls of a cluster client that are on the wire at the same time. The fabric8 client runs its
+ REST calls synchronously, and OkHttp's dispatcher limits only apply to asynchronous calls (the watches), so
+ without this the cap would only be as tight as the number of threads calling. It sits below the rate limiter,
+ so a call waiting for a retry does not hold a slot. Watch requests are long-lived and bypass it.
+ */
+public class ConcurrencyLimitingInterceptor implements Interceptor {
+
+    private final Semaphore slots;
+
+    public ConcurrencyLimitingInterceptor(int maxRequests) {
+        this.slots = new Semaphore(maxRequests, true);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+
+        Request request = chain.request();
+        if ("true".equals(request.url().queryParameter("watch"))) {
+            return chain.proceed(request);
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+        try {
+            return chain.proceed(request);
+        } finally {
+            slots.release();
+        }
+    }
+}
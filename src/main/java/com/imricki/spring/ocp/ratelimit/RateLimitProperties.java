@@ -0,0 +1,25 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/*
+ Client-side rate limiting settings. Every cluster gets its own limiter built from them.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "provisioning.api.rate-limit")
+public class RateLimitProperties {
+
+    private double permitsPerSecond;
+    private double burst;
+    private double initialConcurrency;
+    private double minConcurrency;
+    private double maxConcurrency;
+    private double decreaseFactor;
+    private int maxRetries;
+    private long baseBackoffMillis;
+    private long maxBackoffMillis;
+    private long maxRetryAfterMillis;
+}
@@ -0,0 +1,147 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ OkHttp interceptor installed on the Kubernetes client of a cluster. Every request goes through the
+ AdaptiveRateLimiter of that cluster; throttled, failed and unanswered requests all shrink its window.
+ Retries use full-jitter exponential backoff, never sooner than the server's Retry-After (itself capped,
+ so one header cannot stall every caller). A 429 is retried whatever the method: priority and fairness
+ rejects the request before it runs, so even a create can safely be sent again. A 5xx or a transport failure
+ may come after the write was applied, so only idempotent requests are re-sent then; for POST and PATCH
+ the caller sees the error. Watch requests are long-lived and bypass the limiter.
+ */
+@Slf4j
+public class RateLimitingInterceptor implements Interceptor {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS");
+
+    private final AdaptiveRateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long maxRetryAfterMillis;
+    private final Timer limiterWait;
+
+    public RateLimitingInterceptor(String cluster, final AdaptiveRateLimiter rateLimiter, RateLimitProperties properties,
+                                   final MeterRegistry meterRegistry) {
+        this.rateLimiter = rateLimiter;
+        this.maxRetries = properties.getMaxRetries();
+        this.baseBackoffMillis = properties.getBaseBackoffMillis();
+        this.maxBackoffMillis = properties.getMaxBackoffMillis();
+        this.maxRetryAfterMillis = properties.getMaxRetryAfterMillis();
+        this.limiterWait = Timer.builder("kubernetes.api.ratelimit.wait")
+                .description("Time API calls spend waiting for the client-side rate limiter")
+                .tag("cluster", cluster)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+
+        Request request = chain.request();
+        if ("true".equals(request.url().queryParameter("watch"))) {
+            return chain.proceed(request);
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            acquire();
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                // Timeouts and refused connections are the strongest congestion signal there is
+                rateLimiter.release(true);
+                if (attempt >= maxRetries || !IDEMPOTENT_METHODS.contains(request.method()) || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                long delayMillis = jitteredBackoff(attempt);
+                log.info("{} {} failed: {}, retry {} in {} ms", request.method(), request.url().encodedPath(),
+                        e.getMessage(), attempt + 1, delayMillis);
+                sleep(delayMillis);
+                continue;
+            }
+            boolean congested = isCongested(response.code());
+            rateLimiter.release(congested);
+            if (!congested || attempt >= maxRetries
+                    || (response.code() != TOO_MANY_REQUESTS && !IDEMPOTENT_METHODS.contains(request.method()))) {
+                return response;
+            }
+
+            long retryAfterMillis = Math.min(maxRetryAfterMillis, retryAfterMillis(response.header("Retry-After")));
+            if (retryAfterMillis > 0) {
+                rateLimiter.pause(retryAfterMillis);
+            }
+            long delayMillis = Math.max(retryAfterMillis, jitteredBackoff(attempt));
+            log.info("{} {} answered {}, retry {} in {} ms", request.method(), request.url().encodedPath(),
+                    response.code(), attempt + 1, delayMillis);
+            response.close();
+            sleep(delayMillis);
+        }
+    }
+
+    private static boolean isCongested(int code) {
+        return code == TOO_MANY_REQUESTS || (code >= 500 && code != 501);
+    }
+
+    private long jitteredBackoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /*
+     Retry-After is either a number of seconds or an HTTP date.
+     */
+    private static long retryAfterMillis(String retryAfter) {
+
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private void acquire() throws InterruptedIOException {
+        long start = System.nanoTime();
+        try {
+            rateLimiter.acquire();
+            limiterWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the API rate limiter");
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.imricki.spring.ocp.reconcile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ Tells whether a live object still holds everything its desired manifest sets. Only fields present in the desired
+ manifest are compared, so defaults and status filled in by the API server are not drift; of the metadata only the
+ labels are compared. Quantities are compared by amount, because the server canonicalizes them ("1000m" becomes "1").
+ */
+public final class DriftDetector {
+
+    private static final Pattern QUANTITY = Pattern.compile("[+-]?[0-9.]+([eE][+-]?[0-9]+|m|k|M|G|T|P|E|Ki|Mi|Gi|Ti|Pi|Ei)?");
+
+    private DriftDetector() {
+        // Private constructor to prevent instantiation
+    }
+
+    public static boolean drifted(HasMetadata desired, HasMetadata live) {
+
+        if (live == null) {
+            return true;
+        }
+        return !compare(desired, Serialization.jsonMapper().valueToTree(live), null);
+    }
+
+    /*
+     Paths of the desired fields the live object does not hold, by the same rules as drifted, e.g. "spec.hard.limits.cpu"
+     or "metadata.labels.app". Empty when nothing drifted.
+     */
+    public static List<String> differences(HasMetadata desired, ObjectNode live) {
+
+        List<String> differences = new ArrayList<>();
+        compare(desired, live, differences);
+        return differences;
+    }
+
+    /*
+     Stops at the first difference unless the differences are collected.
+     */
+    private static boolean compare(HasMetadata desired, ObjectNode live, List<String> differences) {
+
+        ObjectNode desiredTree = Serialization.jsonMapper().valueToTree(desired);
+        JsonNode desiredLabels = desiredTree.path("metadata").path("labels");
+        JsonNode liveLabels = live.path("metadata").path("labels");
+        desiredTree.remove("metadata");
+        desiredTree.remove("status");
+        boolean labelsHeld = contains(liveLabels, desiredLabels, "metadata.labels", differences);
+        if (!labelsHeld && differences == null) {
+            return false;
+        }
+        return contains(live, desiredTree, "", differences) && labelsHeld;
+    }
+
+    private static boolean contains(JsonNode live, JsonNode desired, String path, List<String> differences) {
+
+        if (desired.isMissingNode() || desired.isNull() || (desired.isContainerNode() && desired.isEmpty())) {
+            // Nothing set, nothing to hold
+            return true;
+        }
+        if (live == null || live.isMissingNode() || live.isNull()) {
+            return differ(path, differences);
+        }
+        if (desired.isObject()) {
+            if (!live.isObject()) {
+                return differ(path, differences);
+            }
+            boolean held = true;
+            Iterator<Map.Entry<String, JsonNode>> fields = desired.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String fieldPath = path.isEmpty() ? field.getKey() : path + "." + field.getKey();
+                if (!contains(live.get(field.getKey()), field.getValue(), fieldPath, differences)) {
+                    if (differences == null) {
+                        return false;
+                    }
+                    held = false;
+                }
+            }
+            return held;
+        }
+        if (desired.isArray()) {
+            if (!live.isArray() || live.size() != desired.size()) {
+                return differ(path, differences);
+            }
+            boolean held = true;
+            for (int i = 0; i < desired.size(); i++) {
+                if (!contains(live.get(i), desired.get(i), path + "[" + i + "]", differences)) {
+                    if (differences == null) {
+                        return false;
+                    }
+                    held = false;
+                }
+            }
+            return held;
+        }
+        if (desired.equals(live)
+                || (desired.isTextual() && live.isTextual() && sameQuantity(desired.asText(), live.asText()))) {
+            return true;
+        }
+        return differ(path, differences);
+    }
+
+    private static boolean differ(String path, List<String> differences) {
+        if (differences != null) {
+            differences.add(path);
+        }
+        return false;
+    }
+
+    private static boolean sameQuantity(String desired, String live) {
+
+        if (!QUANTITY.matcher(desired).matches() || !QUANTITY.matcher(live).matches()) {
+            return false;
+        }
+        try {
+            return Quantity.getAmountInBytes(new Quantity(desired)).compareTo(Quantity.getAmountInBytes(new Quantity(live))) == 0;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.imricki.spring.ocp.reconcile;
+
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.sharding.ShardCoordinator;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.ManifestHasher;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ Keeps provisioned namespaces converged on their desired state. The informers of ResourceCache report every update
+ or delete of a managed object, and only the namespace it belongs to is queued, keyed by cluster/namespace; a worker then compares each desired
+ manifest with the live object and rewrites the ones that drifted. Work is proportional to the changes made in the
+ cluster, there is no periodic rescan of all namespaces.
+ Namespaces that are gone or terminating are left alone, so deprovisioning is never undone, and with sharding
+ every replica only repairs the namespaces it owns.
+ */
+@Slf4j
+@Component
+public class DriftReconciler {
+
+    private final ResourceCache resourceCache;
+    private final ManifestFactory manifestFactory;
+    private final KubernetesClientPool kubernetesClientPool;
+    private final MeterRegistry meterRegistry;
+    private final ShardCoordinator shardCoordinator;
+    private final TaskExecutor reconcileTaskExecutor;
+    private final boolean enabled;
+    private final int workers;
+    private final ReconcileQueue queue;
+    private volatile boolean running;
+
+    @Autowired
+    public DriftReconciler(final ResourceCache resourceCache, final ManifestFactory manifestFactory,
+                           final KubernetesClientPool kubernetesClientPool, final MeterRegistry meterRegistry,
+                           final ShardCoordinator shardCoordinator,
+                           @Qualifier("reconcileTaskExecutor") final TaskExecutor reconcileTaskExecutor,
+                           @Value("${provisioning.reconcile.enabled}") boolean enabled,
+                           @Value("${provisioning.reconcile.workers}") int workers,
+                           @Value("${provisioning.reconcile.base-backoff-millis}") long baseBackoffMillis,
+                           @Value("${provisioning.reconcile.max-backoff-millis}") long maxBackoffMillis) {
+        this.resourceCache = resourceCache;
+        this.manifestFactory = manifestFactory;
+        this.kubernetesClientPool = kubernetesClientPool;
+        this.meterRegistry = meterRegistry;
+        this.shardCoordinator = shardCoordinator;
+        this.reconcileTaskExecutor = reconcileTaskExecutor;
+        this.enabled = enabled;
+        this.workers = workers;
+        this.queue = new ReconcileQueue(baseBackoffMillis, maxBackoffMillis);
+        Gauge.builder("reconcile.queue.depth", queue, ReconcileQueue::size)
+                .description("Namespaces waiting to be reconciled")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+
+        if (!enabled) {
+            log.info("Drift reconciler disabled.");
+            return;
+        }
+        resourceCache.addChangeListener(this::onChange);
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            reconcileTaskExecutor.execute(this::work);
+        }
+        log.info("Drift reconciler started with {} workers", workers);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    private void onChange(String cluster, HasMetadata changed) {
+
+        String namespaceName = changed instanceof Namespace ? changed.getMetadata().getName() : changed.getMetadata().getNamespace();
+        if (namespaceName != null && shardCoordinator.owns(namespaceName)) {
+            queue.add(cluster + "/" + namespaceName);
+        }
+    }
+
+    private void work() {
+
+        while (running) {
+            String key;
+            try {
+                key = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (key == null) {
+                continue;
+            }
+            int separator = key.indexOf('/');
+            String cluster = key.substring(0, separator);
+            String namespaceName = key.substring(separator + 1);
+            boolean failed = false;
+            try {
+                count(reconcile(cluster, namespaceName));
+            } catch (Exception e) {
+                failed = true;
+                count("failed");
+                log.error("Error reconciling namespace " + namespaceName + " on cluster " + cluster + ": " + e.getMessage());
+            } finally {
+                queue.done(key, failed);
+            }
+        }
+    }
+
+    /*
+     Rewrites every managed object of the namespace that is missing or differs from its desired manifest.
+     Returns the outcome used as metric tag.
+     */
+    private String reconcile(String cluster, String namespaceName) {
+
+        // The shard may have moved to another replica while the namespace was queued
+        if (!shardCoordinator.tryBeginRun(namespaceName)) {
+            return "skipped";
+        }
+        try {
+            return reconcileOwned(cluster, namespaceName);
+        } finally {
+            shardCoordinator.endRun(namespaceName);
+        }
+    }
+
+    private String reconcileOwned(String cluster, String namespaceName) {
+
+        KubernetesClient kubernetesClient = kubernetesClientPool.cluster(cluster).getClient();
+        // Straight from the API server: a namespace that lost its labels is not in the cache anymore
+        Namespace namespace = kubernetesClient.namespaces().withName(namespaceName).get();
+        if (namespace == null || namespace.getMetadata().getDeletionTimestamp() != null) {
+            return "skipped";
+        }
+        String environment = namespace.getMetadata().getLabels() == null
+                ? null : namespace.getMetadata().getLabels().get(ManifestFactory.ENVIRONMENT_LABEL);
+        if (environment == null) {
+            // Provisioned before the label existed, its next run labels it; repairing now could apply the wrong profile
+            log.info("Namespace {} has no {} label, not reconciling it.", namespaceName, ManifestFactory.ENVIRONMENT_LABEL);
+            return "skipped";
+        }
+
+        int repaired = 0;
+        for (HasMetadata desired : manifestFactory.desiredState(namespaceName, environment)) {
+            HasMetadata live = desired instanceof Namespace ? namespace : live(cluster, kubernetesClient, desired);
+            if (DriftDetector.drifted(desired, live)) {
+                if (!shardCoordinator.holdsRun(namespaceName)) {
+                    // Lost the shard meanwhile, the new owner reconciles the namespace
+                    return "skipped";
+                }
+                log.info("{} {} in namespace {} drifted, restoring it...", desired.getKind(), desired.getMetadata().getName(), namespaceName);
+                ManifestHasher.stamp(desired);
+                kubernetesClient.resource(desired).createOrReplace();
+                Counter.builder("reconcile.repairs")
+                        .description("Managed objects rewritten because they drifted from their desired state")
+                        .tag("kind", desired.getKind())
+                        .register(meterRegistry)
+                        .increment();
+                repaired++;
+            }
+        }
+        return repaired == 0 ? "converged" : "repaired";
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends HasMetadata> T live(String cluster, KubernetesClient kubernetesClient, T desired) {
+        return resourceCache.get(cluster, (Class<T>) desired.getClass(), desired.getMetadata().getNamespace(), desired.getMetadata().getName(),
+                () -> kubernetesClient.resource(desired).fromServer().get());
+    }
+
+    private void count(String outcome) {
+        Counter.builder("reconcile.runs")
+                .description("Namespace reconciliations by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+}
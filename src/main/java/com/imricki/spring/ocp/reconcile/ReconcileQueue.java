@@ -0,0 +1,112 @@
+package com.imricki.spring.ocp.reconcile;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Work queue of namespace keys in the style of the client-go workqueue. A key is queued at most once however many
+ changes arrive for it, is never handed to two workers at a time (a key added while being processed is queued again
+ once it is done), and failed keys come back after a per-key exponential backoff.
+ */
+public class ReconcileQueue {
+
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final DelayQueue<Item> items = new DelayQueue<>();
+    private final Set<String> queued = new HashSet<>();
+    private final Set<String> processing = new HashSet<>();
+    private final Set<String> dirty = new HashSet<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+
+    public ReconcileQueue(long baseBackoffMillis, long maxBackoffMillis) {
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void add(String key) {
+        addAfter(key, 0);
+    }
+
+    /*
+     Waits for the next due key and marks it as processing. Returns null on timeout.
+     Every returned key must be handed back with done().
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+        Item item = items.poll(timeout, unit);
+        if (item == null) {
+            return null;
+        }
+        synchronized (this) {
+            queued.remove(item.key);
+            processing.add(item.key);
+        }
+        return item.key;
+    }
+
+    /*
+     Releases a key taken with poll(). A failed key is queued again after its backoff, which doubles with every
+     consecutive failure; a successful one forgets its failures and is queued again if it changed meanwhile.
+     */
+    public synchronized void done(String key, boolean failed) {
+
+        processing.remove(key);
+        if (failed) {
+            dirty.remove(key);
+            int attempts = failures.merge(key, 1, Integer::sum);
+            addAfter(key, backoff(attempts));
+            return;
+        }
+        failures.remove(key);
+        if (dirty.remove(key)) {
+            addAfter(key, 0);
+        }
+    }
+
+    public synchronized int size() {
+        return queued.size();
+    }
+
+    private synchronized void addAfter(String key, long delayMillis) {
+
+        if (processing.contains(key)) {
+            dirty.add(key);
+            return;
+        }
+        if (queued.add(key)) {
+            items.put(new Item(key, System.currentTimeMillis() + delayMillis));
+        }
+    }
+
+    private long backoff(int attempts) {
+        // Capped shift, the max backoff is reached long before it overflows
+        long backoff = baseBackoffMillis << Math.min(attempts - 1, 30);
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    private static final class Item implements Delayed {
+
+        private final String key;
+        private final long dueAtMillis;
+
+        private Item(String key, long dueAtMillis) {
+            this.key = key;
+            this.dueAtMillis = dueAtMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtMillis, ((Item) other).dueAtMillis);
+        }
+    }
+}
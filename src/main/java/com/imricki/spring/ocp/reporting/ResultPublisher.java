@@ -0,0 +1,308 @@
+package com.imricki.spring.ocp.reporting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.ProvisioningResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Publishes provisioning results to Kafka off the provisioning threads. publish() only offers the result to a bounded
+ in-memory queue; a single publisher thread hands them to the producer, which batches (linger) and compresses them.
+ When the queue is full, or a send fails, the overflow policy applies: DROP counts and discards the result, SPILL
+ hands it to a second bounded queue that the publisher thread appends to a local NDJSON file of bounded size (dropped
+ beyond either limit), so neither the provisioning threads nor the producer I/O thread ever touch the disk.
+ The file is replayed once the queue is idle; while sends are failing only one record is tried per replay, with
+ exponential backoff, until one goes through. Every outcome is counted in provisioning.results.
+ */
+@Slf4j
+@Component
+public class ResultPublisher {
+
+    private final KafkaTemplate<String, ProvisioningResult> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String topic;
+    private final BlockingQueue<ProvisioningResult> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final Path replayFile;
+    private final long spillMaxBytes;
+    private final BlockingQueue<ProvisioningResult> overflowQueue;
+    private final Object spillLock = new Object();
+    private Thread publisher;
+    private volatile boolean running;
+    // Set by the last completed send, whichever thread completed it
+    private volatile boolean sendFailing;
+    // Publisher thread only
+    private long replayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+    private long nextReplayNanos = System.nanoTime();
+
+    private static final long MIN_REPLAY_BACKOFF_MILLIS = 1000;
+    private static final long MAX_REPLAY_BACKOFF_MILLIS = 60000;
+
+    public enum OverflowPolicy {
+        DROP, SPILL
+    }
+
+    @Autowired
+    public ResultPublisher(final KafkaTemplate<String, ProvisioningResult> kafkaTemplate, final ObjectMapper objectMapper,
+                           final MeterRegistry meterRegistry,
+                           @Value("${provisioning.kafka.results.enabled}") boolean enabled,
+                           @Value("${provisioning.kafka.results.topic}") String topic,
+                           @Value("${provisioning.kafka.results.queue-capacity}") int queueCapacity,
+                           @Value("${provisioning.kafka.results.overflow-policy}") String overflowPolicy,
+                           @Value("${provisioning.kafka.results.spill-file}") String spillFile,
+                           @Value("${provisioning.kafka.results.spill-max-bytes}") long spillMaxBytes) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.topic = topic;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.toUpperCase(Locale.ROOT));
+        this.spillFile = Paths.get(spillFile);
+        this.replayFile = Paths.get(spillFile + ".replay");
+        this.spillMaxBytes = spillMaxBytes;
+        Gauge.builder("provisioning.results.queue.depth", queue, BlockingQueue::size)
+                .description("Provisioning results waiting to be handed to the Kafka producer")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+
+        if (!enabled) {
+            log.info("Provisioning result reporting disabled.");
+            return;
+        }
+        running = true;
+        publisher = new Thread(this::run, "provisioning-result-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    /*
+     Whatever is still queued is spilled (or dropped), so it is published after the next start.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+
+        if (publisher == null) {
+            return;
+        }
+        running = false;
+        publisher.join(TimeUnit.SECONDS.toMillis(10));
+        ProvisioningResult result;
+        while ((result = queue.poll()) != null) {
+            overflow(result);
+        }
+        // Sends still in flight may fail and overflow, spill after they completed
+        kafkaTemplate.flush();
+        spillOverflow();
+    }
+
+    /*
+     Never blocks: the result is either queued, spilled or dropped.
+     */
+    public void publish(ProvisioningResult result) {
+
+        if (!enabled) {
+            return;
+        }
+        if (!queue.offer(result)) {
+            overflow(result);
+        }
+    }
+
+    private void run() {
+
+        while (running || !queue.isEmpty()) {
+            try {
+                ProvisioningResult result = queue.poll(1, TimeUnit.SECONDS);
+                if (result != null) {
+                    send(result);
+                }
+                spillOverflow();
+                if (result == null && running && System.nanoTime() - nextReplayNanos >= 0) {
+                    replaySpilled();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Error publishing provisioning results: " + e.getMessage());
+            }
+        }
+    }
+
+    private void send(ProvisioningResult result) {
+
+        try {
+            kafkaTemplate.send(topic, result.getNamespaceName(), result).whenComplete((sendResult, e) -> {
+                if (e == null) {
+                    sendFailing = false;
+                    count("sent");
+                } else {
+                    sendFailing = true;
+                    log.error("Error sending provisioning result of " + result.getNamespaceName() + ": " + e.getMessage());
+                    count("failed");
+                    overflow(result);
+                }
+            });
+        } catch (Exception e) {
+            // Buffer full or no metadata within max.block.ms
+            sendFailing = true;
+            log.error("Error sending provisioning result of " + result.getNamespaceName() + ": " + e.getMessage());
+            count("failed");
+            overflow(result);
+        }
+    }
+
+    /*
+     Called from any thread, never blocks and never touches the disk.
+     */
+    private void overflow(ProvisioningResult result) {
+
+        if (overflowPolicy != OverflowPolicy.SPILL || !overflowQueue.offer(result)) {
+            count("dropped");
+        }
+    }
+
+    /*
+     Appends everything waiting in the overflow queue to the spill file with a single write.
+     */
+    private void spillOverflow() {
+
+        if (overflowQueue.isEmpty()) {
+            return;
+        }
+        List<ProvisioningResult> results = new ArrayList<>();
+        overflowQueue.drainTo(results);
+        synchronized (spillLock) {
+            try {
+                long size = Files.exists(spillFile) ? Files.size(spillFile) : 0;
+                StringBuilder lines = new StringBuilder();
+                int spilled = 0;
+                for (ProvisioningResult result : results) {
+                    String line = objectMapper.writeValueAsString(result) + "\n";
+                    int length = line.getBytes(StandardCharsets.UTF_8).length;
+                    if (size + length > spillMaxBytes) {
+                        count("dropped");
+                        continue;
+                    }
+                    size += length;
+                    lines.append(line);
+                    spilled++;
+                }
+                if (spilled == 0) {
+                    return;
+                }
+                if (spillFile.getParent() != null) {
+                    Files.createDirectories(spillFile.getParent());
+                }
+                Files.write(spillFile, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                count("spilled", spilled);
+            } catch (IOException e) {
+                log.error("Error spilling " + results.size() + " provisioning results: " + e.getMessage());
+                count("dropped", results.size());
+            }
+        }
+    }
+
+    /*
+     Moves the spill file aside and sends its results. A replay file left by a crash is sent first.
+     While sends are failing only the first record is sent, as a probe; the replay also stops as soon as
+     a send fails. What was not sent stays in the replay file for the next attempt, after the backoff.
+     */
+    private void replaySpilled() throws IOException {
+
+        if (!Files.exists(replayFile)) {
+            synchronized (spillLock) {
+                if (!Files.exists(spillFile) || Files.size(spillFile) == 0) {
+                    return;
+                }
+                Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        boolean probe = sendFailing;
+        if (!probe) {
+            replayBackoffMillis = MIN_REPLAY_BACKOFF_MILLIS;
+        }
+        int replayed = 0;
+        Path remainder = null;
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (replayed > 0 && (probe || sendFailing)) {
+                    remainder = keepRemainder(line, reader);
+                    break;
+                }
+                send(objectMapper.readValue(line, ProvisioningResult.class));
+                replayed++;
+            }
+        }
+        if (remainder == null) {
+            Files.delete(replayFile);
+            log.info("Replayed {} spilled provisioning results", replayed);
+            return;
+        }
+        Files.move(remainder, replayFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        nextReplayNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayBackoffMillis);
+        log.info("Replayed {} spilled provisioning results, sends are failing, next attempt in {} ms", replayed, replayBackoffMillis);
+        replayBackoffMillis = Math.min(MAX_REPLAY_BACKOFF_MILLIS, replayBackoffMillis * 2);
+    }
+
+    private Path keepRemainder(String firstLine, BufferedReader reader) throws IOException {
+
+        Path remainder = Paths.get(replayFile + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(remainder, StandardCharsets.UTF_8)) {
+            String line = firstLine;
+            do {
+                writer.write(line);
+                writer.newLine();
+            } while ((line = reader.readLine()) != null);
+        }
+        return remainder;
+    }
+
+    private void count(String outcome) {
+        count(outcome, 1);
+    }
+
+    private void count(String outcome, int results) {
+        Counter.builder("provisioning.results")
+                .description("Provisioning results by reporting outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment(results);
+    }
+}
@@ -0,0 +1,22 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkProvisioningResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private long index;
+    private String namespaceName;
+    private boolean successful;
+    private long durationMillis;
+    private List<StepResult> steps;
+    private String error;
+}
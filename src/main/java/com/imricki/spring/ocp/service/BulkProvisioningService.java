@@ -0,0 +1,97 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+ Provisions a stream of events with bounded parallelism. Events are pulled from the iterator only when
+ a slot is free and each result is handed to the callback as soon as it completes, so memory use depends
+ on the parallelism and not on the number of events.
+ */
+@Slf4j
+@Service
+public class BulkProvisioningService {
+
+    private final OpenshiftProvisioner openshiftProvisioner;
+    private final TaskExecutor bulkProvisioningTaskExecutor;
+    private final int maxParallelism;
+
+    @Autowired
+    public BulkProvisioningService(final OpenshiftProvisioner openshiftProvisioner,
+                                   @Qualifier("bulkProvisioningTaskExecutor") final TaskExecutor bulkProvisioningTaskExecutor,
+                                   @Value("${provisioning.bulk.max-parallelism}") int maxParallelism) {
+        this.openshiftProvisioner = openshiftProvisioner;
+        this.bulkProvisioningTaskExecutor = bulkProvisioningTaskExecutor;
+        this.maxParallelism = maxParallelism;
+    }
+
+    /*
+     Blocks until every event has been provisioned. The callback is invoked from pool threads,
+     one call at a time, in completion order. If the callback throws (typically because the client went away)
+     no further events are started and the exception is rethrown once the in-flight ones are done.
+     */
+    public void provision(Iterator<NewApplicationEvent> events, int parallelism, Consumer<BulkProvisioningResult> onResult) throws InterruptedException {
+
+        int permits = Math.max(1, Math.min(parallelism, maxParallelism));
+        Semaphore slots = new Semaphore(permits);
+        Object resultLock = new Object();
+        AtomicReference<RuntimeException> callbackFailure = new AtomicReference<>();
+        long index = 0;
+
+        while (callbackFailure.get() == null && events.hasNext()) {
+            NewApplicationEvent event = events.next();
+            long eventIndex = index++;
+            slots.acquire();
+            try {
+                bulkProvisioningTaskExecutor.execute(() -> {
+                    try {
+                        BulkProvisioningResult result = provisionOne(eventIndex, event);
+                        synchronized (resultLock) {
+                            if (callbackFailure.get() == null) {
+                                onResult.accept(result);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        callbackFailure.compareAndSet(null, e);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                slots.release();
+                throw e;
+            }
+        }
+        // Wait for the in-flight events to drain
+        slots.acquire(permits);
+        if (callbackFailure.get() != null) {
+            throw callbackFailure.get();
+        }
+        log.info("Bulk provisioning of {} events finished", index);
+    }
+
+    private BulkProvisioningResult provisionOne(long index, NewApplicationEvent event) {
+
+        long start = System.currentTimeMillis();
+        try {
+            ProvisioningReport report = openshiftProvisioner.provisionResources(event);
+            return new BulkProvisioningResult(index, report.getNamespaceName(), report.isSuccessful(),
+                    report.getDurationMillis(), report.getSteps(), null);
+        } catch (Exception e) {
+            log.error("Error provisioning " + event.namespaceName() + ": " + e.getMessage());
+            return new BulkProvisioningResult(index, event.namespaceName(), false,
+                    System.currentTimeMillis() - start, List.of(), e.getMessage());
+        }
+    }
+}
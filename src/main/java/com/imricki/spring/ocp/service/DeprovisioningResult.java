@@ -0,0 +1,28 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeprovisioningResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String namespaceName;
+    private Status status;
+    private long elapsedMillis;
+    private String error;
+
+    public enum Status {
+        // Delete accepted, namespace is terminating
+        DELETING,
+        // Namespace is gone, finalizers included
+        DELETED,
+        FAILED,
+        TIMED_OUT
+    }
+}
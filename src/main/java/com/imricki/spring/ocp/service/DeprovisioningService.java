@@ -0,0 +1,256 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.OCPResources;
+import io.fabric8.kubernetes.api.model.DeletionPropagation;
+import io.fabric8.kubernetes.api.model.ListOptionsBuilder;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.WatcherException;
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+ Tears down every namespace of an environment, on the cluster serving the environment.
+ Namespaces are selected server-side by the application and environment labels set by createNamespace, so
+ other namespaces of the cluster are never listed, and paged. They are deleted with bounded parallelism and background
+ propagation (the namespace controller removes their contents), and their finalization is followed
+ with a single watch instead of polling each one. The Namespace API has no deletecollection verb,
+ so there is one DELETE per namespace.
+ */
+@Slf4j
+@Service
+public class DeprovisioningService {
+
+    private static final long PAGE_SIZE = 500;
+
+    private final KubernetesClientPool kubernetesClientPool;
+    private final OCPResources ocpResources;
+    private final TaskExecutor deprovisioningTaskExecutor;
+    private final int maxParallelism;
+
+    @Autowired
+    public DeprovisioningService(final KubernetesClientPool kubernetesClientPool, final OCPResources ocpResources,
+                                 @Qualifier("deprovisioningTaskExecutor") final TaskExecutor deprovisioningTaskExecutor,
+                                 @Value("${provisioning.deprovisioning.max-parallelism}") int maxParallelism) {
+        this.kubernetesClientPool = kubernetesClientPool;
+        this.ocpResources = ocpResources;
+        this.deprovisioningTaskExecutor = deprovisioningTaskExecutor;
+        this.maxParallelism = maxParallelism;
+    }
+
+    /*
+     Blocks until every namespace of the environment is gone or the timeout expired. The callback gets
+     a DELETING result when a delete is accepted before the namespace is gone and a final result per namespace,
+     one call at a time.
+     If the callback throws no further deletes are started; namespaces already terminating are not followed anymore.
+     */
+    public void deprovision(String environment, int parallelism, long timeoutMillis,
+                            Consumer<DeprovisioningResult> onResult) throws InterruptedException {
+
+        KubernetesClient kubernetesClient = kubernetesClientPool.forEnvironment(environment).getClient();
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMillis;
+        Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+        Set<String> gone = ConcurrentHashMap.newKeySet();
+        Object resultLock = new Object();
+        AtomicReference<RuntimeException> callbackFailure = new AtomicReference<>();
+        Consumer<DeprovisioningResult> report = result -> {
+            synchronized (resultLock) {
+                if (callbackFailure.get() != null) {
+                    return;
+                }
+                try {
+                    onResult.accept(result);
+                } catch (RuntimeException e) {
+                    callbackFailure.set(e);
+                }
+            }
+        };
+
+        // Opened before listing, so a namespace finishing between the list and its delete is not missed
+        try (Watch ignored = namespaces(kubernetesClient, environment).watch(new FinalizationWatcher(pending, gone))) {
+
+            int permits = Math.max(1, Math.min(parallelism, maxParallelism));
+            Semaphore slots = new Semaphore(permits);
+            String continueToken = null;
+            do {
+                NamespaceList page = namespaces(kubernetesClient, environment).list(new ListOptionsBuilder()
+                        .withLimit(PAGE_SIZE)
+                        .withContinue(continueToken)
+                        .build());
+                for (Namespace namespace : page.getItems()) {
+                    String name = namespace.getMetadata().getName();
+                    if (pending.containsKey(name) || callbackFailure.get() != null) {
+                        continue;
+                    }
+                    CompletableFuture<Void> finalized = new CompletableFuture<>();
+                    // A namespace may finish before its delete call returns, DELETING is then left out
+                    Consumer<DeprovisioningResult> reportDeleting = result -> {
+                        synchronized (resultLock) {
+                            if (!finalized.isDone()) {
+                                report.accept(result);
+                            }
+                        }
+                    };
+                    pending.put(name, finalized);
+                    finalized.whenComplete((done, e) -> report.accept(new DeprovisioningResult(name,
+                            e == null ? DeprovisioningResult.Status.DELETED : DeprovisioningResult.Status.FAILED,
+                            System.currentTimeMillis() - start, e == null ? null : e.getMessage())));
+                    if (gone.contains(name)) {
+                        finalized.complete(null);
+                        continue;
+                    }
+                    if (namespace.getMetadata().getDeletionTimestamp() != null) {
+                        // Already terminating, only wait for it
+                        continue;
+                    }
+                    slots.acquire();
+                    try {
+                        deprovisioningTaskExecutor.execute(() -> {
+                            try {
+                                delete(kubernetesClient, name, finalized, start, reportDeleting);
+                            } finally {
+                                slots.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        slots.release();
+                        throw e;
+                    }
+                }
+                continueToken = page.getMetadata().getContinue();
+            } while (continueToken != null && !continueToken.isEmpty() && callbackFailure.get() == null);
+
+            slots.acquire(permits);
+            log.info("Deleted {} namespaces of environment {}, waiting for finalization...", pending.size(), environment);
+            awaitFinalization(kubernetesClient, environment, pending, deadline);
+        }
+
+        pending.forEach((name, finalized) -> {
+            if (!finalized.isDone()) {
+                report.accept(new DeprovisioningResult(name, DeprovisioningResult.Status.TIMED_OUT,
+                        System.currentTimeMillis() - start, null));
+            }
+        });
+        if (callbackFailure.get() != null) {
+            throw callbackFailure.get();
+        }
+        log.info("Deprovisioning of environment {} finished in {} ms", environment, System.currentTimeMillis() - start);
+    }
+
+    private void delete(KubernetesClient kubernetesClient, String name, CompletableFuture<Void> finalized, long start,
+                        Consumer<DeprovisioningResult> reportDeleting) {
+
+        try {
+            Boolean deleted = kubernetesClient.namespaces().withName(name)
+                    .withPropagationPolicy(DeletionPropagation.BACKGROUND)
+                    .delete();
+            if (Boolean.TRUE.equals(deleted)) {
+                reportDeleting.accept(new DeprovisioningResult(name, DeprovisioningResult.Status.DELETING,
+                        System.currentTimeMillis() - start, null));
+            } else {
+                // Already gone
+                finalized.complete(null);
+            }
+        } catch (Exception e) {
+            log.error("Error deleting namespace " + name + ": " + e.getMessage());
+            finalized.completeExceptionally(e);
+        }
+    }
+
+    /*
+     Waits on the watch until the deadline. A closed watch is not reopened: whatever is still pending
+     at the end is checked with one paged list, so deletions missed by the watch are still reported.
+     */
+    private void awaitFinalization(KubernetesClient kubernetesClient, String environment, Map<String, CompletableFuture<Void>> pending, long deadline) throws InterruptedException {
+
+        try {
+            CompletableFuture.allOf(pending.values().toArray(new CompletableFuture[0]))
+                    .get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            return;
+        } catch (ExecutionException | TimeoutException e) {
+            // Failed deletes are already reported, remaining ones are checked below
+        }
+
+        Set<String> remaining = new HashSet<>();
+        String continueToken = null;
+        do {
+            NamespaceList page = namespaces(kubernetesClient, environment).list(new ListOptionsBuilder()
+                    .withLimit(PAGE_SIZE)
+                    .withContinue(continueToken)
+                    .build());
+            page.getItems().forEach(namespace -> remaining.add(namespace.getMetadata().getName()));
+            continueToken = page.getMetadata().getContinue();
+        } while (continueToken != null && !continueToken.isEmpty());
+
+        List<String> finished = new ArrayList<>();
+        pending.forEach((name, finalized) -> {
+            if (!finalized.isDone() && !remaining.contains(name)) {
+                finished.add(name);
+            }
+        });
+        finished.forEach(name -> pending.get(name).complete(null));
+    }
+
+    private FilterWatchListDeletable<Namespace, NamespaceList> namespaces(KubernetesClient kubernetesClient, String environment) {
+        return kubernetesClient.namespaces().withLabels(Map.of(
+                ocpResources.getApplicationLabelKey(), ocpResources.getApplicationLabelValue(),
+                ManifestFactory.ENVIRONMENT_LABEL, ManifestFactory.environmentLabelValue(environment)));
+    }
+
+    private static final class FinalizationWatcher implements Watcher<Namespace> {
+
+        private final Map<String, CompletableFuture<Void>> pending;
+        private final Set<String> gone;
+
+        private FinalizationWatcher(Map<String, CompletableFuture<Void>> pending, Set<String> gone) {
+            this.pending = pending;
+            this.gone = gone;
+        }
+
+        @Override
+        public void eventReceived(Action action, Namespace namespace) {
+
+            if (action != Action.DELETED) {
+                return;
+            }
+            String name = namespace.getMetadata().getName();
+            gone.add(name);
+            CompletableFuture<Void> finalized = pending.get(name);
+            if (finalized != null) {
+                finalized.complete(null);
+            }
+        }
+
+        @Override
+        public void onClose(WatcherException cause) {
+            if (cause != null) {
+                log.warn("Namespace watch closed: {}", cause.getMessage());
+            }
+        }
+    }
+}
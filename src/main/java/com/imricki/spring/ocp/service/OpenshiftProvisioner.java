@@ -2,6 +2,15 @@ package com.imricki.spring.ocp.service;
 
 import com.imricki.spring.ocp.event.NewApplicationEvent;
 
+import java.util.Optional;
+
 public interface OpenshiftProvisioner {
-     void provisionResources(NewApplicationEvent newApplicationEvent);
+     ProvisioningReport provisionResources(NewApplicationEvent newApplicationEvent);
+
+     ProvisioningReport provisionResources(NewApplicationEvent newApplicationEvent, StepListener stepListener);
+
+     /*
+      Provisions only if this replica owns the namespace, without handing the run over to its owner.
+      */
+     Optional<ProvisioningReport> provisionOwnedResources(NewApplicationEvent newApplicationEvent, StepListener stepListener);
 }
@@ -1,44 +1,182 @@
 package com.imricki.spring.ocp.service;
 
 import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.journal.ProvisioningJournal;
+import com.imricki.spring.ocp.sharding.ShardCoordinator;
+import com.imricki.spring.ocp.sharding.ShardForwarder;
 import com.imricki.spring.ocp.utils.ProvisioningUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
 @Slf4j
 @Service
 public class OpenshiftProvisionerService implements OpenshiftProvisioner {
 
     private final ProvisioningUtils provisioningUtils;
+    private final ProvisioningStepExecutor provisioningStepExecutor;
+    private final Map<ProvisioningStep, Consumer<NewApplicationEvent>> steps;
+    private final MeterRegistry meterRegistry;
+    private final ProvisioningJournal provisioningJournal;
+    private final ShardCoordinator shardCoordinator;
+    private final ShardForwarder shardForwarder;
+    private final long handoffTimeoutMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
     @Autowired
-    public OpenshiftProvisionerService(ProvisioningUtils provisioningUtils) {
+    public OpenshiftProvisionerService(ProvisioningUtils provisioningUtils, ProvisioningStepExecutor provisioningStepExecutor,
+                                       MeterRegistry meterRegistry, ProvisioningJournal provisioningJournal,
+                                       ShardCoordinator shardCoordinator, ShardForwarder shardForwarder,
+                                       @Value("${provisioning.sharding.handoff-timeout-millis}") long handoffTimeoutMillis) {
         this.provisioningUtils = provisioningUtils;
+        this.provisioningStepExecutor = provisioningStepExecutor;
+        this.meterRegistry = meterRegistry;
+        this.provisioningJournal = provisioningJournal;
+        this.shardCoordinator = shardCoordinator;
+        this.shardForwarder = shardForwarder;
+        this.handoffTimeoutMillis = handoffTimeoutMillis;
+        Gauge.builder("provisioning.in.flight", inFlight, AtomicInteger::get)
+                .description("Provisioning runs currently executing")
+                .register(meterRegistry);
+
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> stepActions = new EnumMap<>(ProvisioningStep.class);
+        stepActions.put(ProvisioningStep.NAMESPACE, event -> provisioningUtils.createNamespace(event.namespaceName(), event.getEnvironment()));
+        stepActions.put(ProvisioningStep.LIMITS_AND_QUOTAS,
+                event -> provisioningUtils.createLimitsAndQuotas(event.namespaceName(), event.getEnvironment()));
+        stepActions.put(ProvisioningStep.SERVICE_ACCOUNT, event -> provisioningUtils.createServiceAccount(event.namespaceName(), event.getEnvironment()));
+        stepActions.put(ProvisioningStep.ROLE_BINDINGS, event -> provisioningUtils.createRoleBindings(event.namespaceName(), event.getEnvironment()));
+        stepActions.put(ProvisioningStep.SECRETS, event -> provisioningUtils.createSecrets(event.namespaceName(), event.getEnvironment()));
+        stepActions.put(ProvisioningStep.NETWORK_POLICIES,
+                event -> provisioningUtils.createNetworkPolicies(event.namespaceName(), event.getEnvironment()));
+        if (provisioningUtils.isHelmEnabled()) {
+            stepActions.put(ProvisioningStep.HELM_CHART,
+                    event -> provisioningUtils.executeHelmChart(event.namespaceName(), event.getEnvironment()));
+        }
+        this.steps = Collections.unmodifiableMap(stepActions);
+    }
+
+    @Override
+    public ProvisioningReport provisionResources(final NewApplicationEvent newApplicationEvent) {
+        return provisionResources(newApplicationEvent, StepListener.NONE);
     }
+
+    /*
+     Runs locally when this replica owns the shard of the namespace, otherwise hands the run over to the owner
+     and returns its report. While the shard is changing hands, retries until the handoff timeout.
+     */
     @Override
-    public void provisionResources(final NewApplicationEvent newApplicationEvent) {
+    public ProvisioningReport provisionResources(final NewApplicationEvent newApplicationEvent, final StepListener stepListener) {
+
+        String namespaceName = newApplicationEvent.namespaceName();
+        long deadline = System.currentTimeMillis() + handoffTimeoutMillis;
+        try {
+            while (true) {
+                Optional<ProvisioningReport> report = provisionOwnedResources(newApplicationEvent, stepListener);
+                if (report.isPresent()) {
+                    return report.get();
+                }
+                Optional<ProvisioningReport> forwarded = shardForwarder.forward(newApplicationEvent);
+                if (forwarded.isPresent()) {
+                    forwarded.get().getSteps().forEach(stepListener::onStep);
+                    return forwarded.get();
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("No replica owns the shard of " + namespaceName + " after " + handoffTimeoutMillis + " ms");
+                }
+                Thread.sleep(200);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted handing off provisioning of " + namespaceName, e);
+        }
+    }
+
+    @Override
+    public Optional<ProvisioningReport> provisionOwnedResources(final NewApplicationEvent newApplicationEvent, final StepListener stepListener) {
+
+        String namespaceName = newApplicationEvent.namespaceName();
+        if (!shardCoordinator.tryBeginRun(namespaceName)) {
+            return Optional.empty();
+        }
+        try {
+            return provision(newApplicationEvent, stepListener);
+        } finally {
+            shardCoordinator.endRun(namespaceName);
+        }
+    }
+
+    /*
+     Empty when the shard of the namespace was lost during the run, which then belongs to the new owner.
+     */
+    private Optional<ProvisioningReport> provision(final NewApplicationEvent newApplicationEvent, final StepListener stepListener) {
 
-        // Extract application details from newApplication object
-        String applicationName = newApplicationEvent.getApplicationName();
-        String environment = newApplicationEvent.getEnvironment();
         // Define resource names and configurations based on application details
-        String namespaceName = environment + "-" + applicationName;
-
-        log.info("Create Namespace...");
-        provisioningUtils.createNamespace(namespaceName);
-        log.info("Create Limits/Quotas...");
-        provisioningUtils.createLimitsAndQuotas(namespaceName);
-        log.info("Create ServiceAccount...");
-        provisioningUtils.createServiceAccount(namespaceName);
-        log.info("Create RoleBindings...");
-        provisioningUtils.createRoleBindings(namespaceName);
-        log.info("Create Secrets...");
-        provisioningUtils.createSecrets(namespaceName);
-        log.info("Create NetworkPolicies...");
-        provisioningUtils.createNetworkPolicies(namespaceName);
-        log.info("Execute Helm Chart...");
-        //provisioningUtils.executeHelmChart(namespaceName);
+        String namespaceName = newApplicationEvent.namespaceName();
+
+        log.info("Provision resources for namespace {}...", namespaceName);
+        ProvisioningReport report;
+        Set<ProvisioningStep> completed = provisioningJournal.begin(newApplicationEvent);
+        if (!completed.isEmpty()) {
+            log.info("Resuming provisioning of {}, already completed: {}", namespaceName, completed);
+        }
+        inFlight.incrementAndGet();
+        try {
+            report = provisioningStepExecutor.execute(newApplicationEvent, fenced(namespaceName), completed, result -> {
+                if (result.getStatus() == StepResult.Status.SUCCEEDED) {
+                    provisioningJournal.stepCompleted(namespaceName, result.getStep());
+                }
+                stepListener.onStep(result);
+            });
+        } finally {
+            inFlight.decrementAndGet();
+            // Failed runs are closed too, their retry must not skip steps of a run that was already reported
+            provisioningJournal.end(namespaceName);
+        }
+        if (!report.isSuccessful() && !shardCoordinator.holdsRun(namespaceName)) {
+            log.warn("Shard of {} lost during provisioning, handing the run over", namespaceName);
+            return Optional.empty();
+        }
+        Timer.builder("provisioning.run")
+                .description("Wall time of a full provisioning run")
+                .tag("outcome", report.isSuccessful() ? "SUCCEEDED" : "FAILED")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(report.getDurationMillis(), TimeUnit.MILLISECONDS);
+        log.info("Provisioning of {} finished in {} ms, successful: {}", namespaceName, report.getDurationMillis(), report.isSuccessful());
+
         log.info("Report results (logging, Kafka topic, API endpoint, etc....");
-        //provisioningUtils.reportResults(namespaceName);
+        provisioningUtils.reportResults(newApplicationEvent, report);
+        return Optional.of(report);
+    }
+
+    /*
+     The step actions, each refusing to start once this replica no longer holds the shard of the namespace.
+     */
+    private Map<ProvisioningStep, Consumer<NewApplicationEvent>> fenced(String namespaceName) {
+
+        if (!shardCoordinator.isEnabled()) {
+            return steps;
+        }
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> fenced = new EnumMap<>(ProvisioningStep.class);
+        steps.forEach((step, action) -> fenced.put(step, event -> {
+            if (!shardCoordinator.holdsRun(namespaceName)) {
+                throw new IllegalStateException("Shard of " + namespaceName + " is no longer held by this replica");
+            }
+            action.accept(event);
+        }));
+        return fenced;
     }
 }
@@ -0,0 +1,39 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+@Data
+@NoArgsConstructor
+public class ProvisioningJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String id;
+    private String namespaceName;
+    private volatile Status status;
+    private long submittedAtMillis;
+    private volatile long startedAtMillis;
+    private volatile long finishedAtMillis;
+    /* Why the job failed: the first failing step and its error, or the exception that ended the run */
+    private volatile String error;
+    private Map<ProvisioningStep, StepResult> steps = new ConcurrentSkipListMap<>();
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    public ProvisioningJob(String id, String namespaceName) {
+        this.id = id;
+        this.namespaceName = namespaceName;
+        this.status = Status.QUEUED;
+        this.submittedAtMillis = System.currentTimeMillis();
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+}
@@ -0,0 +1,96 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Runs provisioning requests in the background on a dedicated bounded pool and keeps their progress
+ in memory, so callers get a job ID back immediately instead of holding a web thread for the whole run.
+ Finished jobs are kept for the configured retention and then evicted.
+ */
+@Slf4j
+@Service
+public class ProvisioningJobService {
+
+    private final OpenshiftProvisioner openshiftProvisioner;
+    private final TaskExecutor provisioningJobTaskExecutor;
+    private final long retentionMillis;
+    private final Map<String, ProvisioningJob> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProvisioningJobService(final OpenshiftProvisioner openshiftProvisioner,
+                                  @Qualifier("provisioningJobTaskExecutor") final TaskExecutor provisioningJobTaskExecutor,
+                                  @Value("${provisioning.jobs.retention-millis}") long retentionMillis) {
+        this.openshiftProvisioner = openshiftProvisioner;
+        this.provisioningJobTaskExecutor = provisioningJobTaskExecutor;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /*
+     Queues the event for provisioning and returns its job. Throws TaskRejectedException
+     when the job queue is full.
+     */
+    public ProvisioningJob submit(NewApplicationEvent newApplicationEvent) {
+
+        ProvisioningJob job = new ProvisioningJob(UUID.randomUUID().toString(), newApplicationEvent.namespaceName());
+        jobs.put(job.getId(), job);
+        try {
+            provisioningJobTaskExecutor.execute(() -> run(job, newApplicationEvent));
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    public Optional<ProvisioningJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    @Scheduled(fixedDelayString = "${provisioning.jobs.eviction-interval-millis}")
+    public void evictFinishedJobs() {
+        long threshold = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAtMillis() < threshold);
+    }
+
+    private void run(ProvisioningJob job, NewApplicationEvent newApplicationEvent) {
+
+        job.setStartedAtMillis(System.currentTimeMillis());
+        job.setStatus(ProvisioningJob.Status.RUNNING);
+        try {
+            ProvisioningReport report = openshiftProvisioner.provisionResources(newApplicationEvent,
+                    result -> job.getSteps().put(result.getStep(), result));
+            if (report.isSuccessful()) {
+                job.setStatus(ProvisioningJob.Status.SUCCEEDED);
+            } else {
+                job.setError(firstFailure(report));
+                job.setStatus(ProvisioningJob.Status.FAILED);
+            }
+        } catch (Exception e) {
+            log.error("Error running provisioning job " + job.getId() + ": " + e.getMessage());
+            job.setError(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+            job.setStatus(ProvisioningJob.Status.FAILED);
+        } finally {
+            job.setFinishedAtMillis(System.currentTimeMillis());
+        }
+    }
+
+    private static String firstFailure(ProvisioningReport report) {
+        return report.getSteps().stream()
+                .filter(result -> result.getStatus() == StepResult.Status.FAILED)
+                .findFirst()
+                .map(result -> result.getStep() + ": " + result.getError())
+                .orElse("Provisioning did not complete");
+    }
+}
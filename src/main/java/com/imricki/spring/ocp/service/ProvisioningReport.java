@@ -0,0 +1,23 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProvisioningReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String namespaceName;
+    private List<StepResult> steps;
+    private long durationMillis;
+
+    public boolean isSuccessful() {
+        return steps.stream().allMatch(StepResult::succeeded);
+    }
+}
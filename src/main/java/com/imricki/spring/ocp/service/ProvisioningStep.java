@@ -0,0 +1,29 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/*
+ Provisioning steps run for every application namespace, together with the steps each one depends on.
+ Constants are declared in a valid topological order, so iterating over values() never visits
+ a step before its dependencies.
+ */
+@Getter
+public enum ProvisioningStep {
+
+    NAMESPACE,
+    LIMITS_AND_QUOTAS(NAMESPACE),
+    SERVICE_ACCOUNT(NAMESPACE),
+    ROLE_BINDINGS(SERVICE_ACCOUNT),
+    SECRETS(NAMESPACE),
+    NETWORK_POLICIES(NAMESPACE),
+    // Workloads go last, once their quota, identity, secrets and policies are in place
+    HELM_CHART(LIMITS_AND_QUOTAS, ROLE_BINDINGS, SECRETS, NETWORK_POLICIES);
+
+    private final List<ProvisioningStep> dependencies;
+
+    ProvisioningStep(ProvisioningStep... dependencies) {
+        this.dependencies = List.of(dependencies);
+    }
+}
@@ -0,0 +1,125 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+@Slf4j
+@Component
+public class ProvisioningStepExecutor {
+
+    private final KubernetesClientPool kubernetesClientPool;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ProvisioningStepExecutor(final KubernetesClientPool kubernetesClientPool, final MeterRegistry meterRegistry) {
+        this.kubernetesClientPool = kubernetesClientPool;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /*
+     Runs every step of the given action map on the step pool of the event's cluster as soon as all of its dependencies succeeded,
+     so the wall time of a run is the longest dependency path instead of the sum of all steps.
+     The first failure stops the run: steps that have not started yet are reported as SKIPPED,
+     steps already in flight are allowed to finish.
+     Steps in completed were done by an earlier run: they are reported as RESUMED without running
+     and count as succeeded for their dependents.
+     */
+    public ProvisioningReport execute(NewApplicationEvent event, Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions) {
+        return execute(event, actions, Collections.emptySet(), StepListener.NONE);
+    }
+
+    public ProvisioningReport execute(NewApplicationEvent event, Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions,
+                                      StepListener listener) {
+        return execute(event, actions, Collections.emptySet(), listener);
+    }
+
+    public ProvisioningReport execute(NewApplicationEvent event, Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions,
+                                      Set<ProvisioningStep> completed, StepListener listener) {
+
+        String namespaceName = event.namespaceName();
+        TaskExecutor taskExecutor = kubernetesClientPool.forEnvironment(event.getEnvironment()).getStepTaskExecutor();
+        long start = System.currentTimeMillis();
+        AtomicBoolean failed = new AtomicBoolean();
+        Map<ProvisioningStep, CompletableFuture<StepResult>> futures = new EnumMap<>(ProvisioningStep.class);
+
+        for (ProvisioningStep step : ProvisioningStep.values()) {
+            Consumer<NewApplicationEvent> action = actions.get(step);
+            if (action == null) {
+                continue;
+            }
+            if (completed.contains(step)) {
+                StepResult resumed = StepResult.resumed(step);
+                listener.onStep(resumed);
+                futures.put(step, CompletableFuture.completedFuture(resumed));
+                continue;
+            }
+            List<CompletableFuture<StepResult>> dependencies = new ArrayList<>();
+            for (ProvisioningStep dependency : step.getDependencies()) {
+                CompletableFuture<StepResult> dependencyFuture = futures.get(dependency);
+                if (dependencyFuture != null) {
+                    dependencies.add(dependencyFuture);
+                }
+            }
+            CompletableFuture<StepResult> future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                    .thenApplyAsync(ignored -> {
+                        boolean dependenciesSucceeded = dependencies.stream()
+                                .allMatch(dependency -> dependency.join().succeeded());
+                        StepResult result = failed.get() || !dependenciesSucceeded
+                                ? StepResult.skipped(step)
+                                : runStep(step, event, action, failed, listener);
+                        listener.onStep(result);
+                        return result;
+                    }, taskExecutor);
+            futures.put(step, future);
+        }
+
+        List<StepResult> results = new ArrayList<>(futures.size());
+        futures.values().forEach(future -> results.add(future.join()));
+        return new ProvisioningReport(namespaceName, results, System.currentTimeMillis() - start);
+    }
+
+    private StepResult runStep(ProvisioningStep step, NewApplicationEvent event, Consumer<NewApplicationEvent> action,
+                               AtomicBoolean failed, StepListener listener) {
+
+        String namespaceName = event.namespaceName();
+        long start = System.currentTimeMillis();
+        listener.onStep(new StepResult(step, StepResult.Status.RUNNING, start, 0, null));
+        try {
+            log.info("Run step {} for namespace {}...", step, namespaceName);
+            action.accept(event);
+            return record(new StepResult(step, StepResult.Status.SUCCEEDED, start, System.currentTimeMillis() - start, null));
+        } catch (Exception e) {
+            failed.set(true);
+            log.error("Step " + step + " failed for namespace " + namespaceName + ": " + e.getMessage());
+            return record(new StepResult(step, StepResult.Status.FAILED, start, System.currentTimeMillis() - start, e.getMessage()));
+        }
+    }
+
+    private StepResult record(StepResult result) {
+        Timer.builder("provisioning.step")
+                .description("Duration of a provisioning step, API calls and rate limiting included")
+                .tag("step", result.getStep().name())
+                .tag("outcome", result.getStatus().name())
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(result.getDurationMillis(), TimeUnit.MILLISECONDS);
+        return result;
+    }
+}
@@ -0,0 +1,14 @@
+package com.imricki.spring.ocp.service;
+
+/*
+ Receives step progress while a provisioning run is executing: a RUNNING result when a step starts,
+ then its final result. Called from the step pool threads.
+ */
+@FunctionalInterface
+public interface StepListener {
+
+    StepListener NONE = result -> {
+    };
+
+    void onStep(StepResult result);
+}
@@ -0,0 +1,39 @@
+package com.imricki.spring.ocp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StepResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private ProvisioningStep step;
+    private Status status;
+    private long startedAtMillis;
+    private long durationMillis;
+    private String error;
+
+    public enum Status {
+        RUNNING, SUCCEEDED, FAILED, SKIPPED, RESUMED
+    }
+
+    /*
+     A step completed by an earlier, interrupted run of the same namespace.
+     */
+    public static StepResult resumed(ProvisioningStep step) {
+        return new StepResult(step, Status.RESUMED, System.currentTimeMillis(), 0, null);
+    }
+
+    public boolean succeeded() {
+        return status == Status.SUCCEEDED || status == Status.RESUMED;
+    }
+
+    public static StepResult skipped(ProvisioningStep step) {
+        return new StepResult(step, Status.SKIPPED, System.currentTimeMillis(), 0, null);
+    }
+}
@@ -0,0 +1,22 @@
+package com.imricki.spring.ocp.sharding;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShardAssignment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String identity;
+    private String url;
+    private boolean enabled;
+    private int shards;
+    private List<Integer> ownedShards;
+    private List<String> members;
+}
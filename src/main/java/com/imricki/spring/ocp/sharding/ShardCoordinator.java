@@ -0,0 +1,486 @@
+package com.imricki.spring.ocp.sharding;
+
+import io.fabric8.kubernetes.api.model.coordination.v1.Lease;
+import io.fabric8.kubernetes.api.model.coordination.v1.LeaseBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.CRC32;
+
+/*
+ Splits the namespace keys between the replicas of the service. Keys are hashed onto a fixed number of shards,
+ so a key never changes shard, and each shard is owned by at most one replica through a coordination.k8s.io Lease
+ in the default cluster. Every replica also keeps a membership Lease carrying its URL; from the live members each
+ replica derives its fair share of shards, releases the surplus once its runs on them finished and takes over
+ shards that are free or whose holder stopped renewing.
+ Expiry is judged on the local monotonic clock: a lease is expired when its renew time did not change for a whole
+ lease duration since we first saw it, so clock skew between replicas does not matter. Our own ownership is only
+ trusted until one lease duration after the start of the last successful renew.
+ A run that is already executing checks holdsRun before every write it starts: once the shard is lost, or our
+ lease on it ran out because this replica could not reach the API server for a whole lease duration, the run stops
+ and the new owner redoes it. Since other replicas only take over after seeing the lease unchanged for a whole
+ lease duration, and our ownership is trusted for less than that, writes of two replicas can only overlap for
+ the one write that was already on its way.
+ */
+@Slf4j
+@Component
+public class ShardCoordinator {
+
+    private static final String APP_LABEL = "app.kubernetes.io/managed-by";
+    private static final String ROLE_LABEL = "ocp-provisioner/role";
+    private static final String URL_ANNOTATION = "ocp-provisioner/url";
+
+    private final KubernetesClient kubernetesClient;
+    private final boolean enabled;
+    private final int shards;
+    private final String leaseNamespace;
+    private final String leasePrefix;
+    private final String identity;
+    private final String advertisedUrl;
+    private final long leaseDurationMillis;
+    private final long renewIntervalMillis;
+    private final AtomicIntegerArray inFlight;
+    private final Map<Integer, OwnedShard> owned = new ConcurrentHashMap<>();
+    private final Map<String, Observation> observations = new HashMap<>();
+    private volatile Map<Integer, String> holders = Map.of();
+    private volatile Map<String, String> memberUrls = Map.of();
+    private Thread renewer;
+    private volatile boolean running;
+
+    @Autowired
+    public ShardCoordinator(final KubernetesClient kubernetesClient, final MeterRegistry meterRegistry,
+                            @Value("${provisioning.sharding.enabled}") boolean enabled,
+                            @Value("${provisioning.sharding.shards}") int shards,
+                            @Value("${provisioning.sharding.lease-namespace}") String leaseNamespace,
+                            @Value("${provisioning.sharding.lease-prefix}") String leasePrefix,
+                            @Value("${provisioning.sharding.identity}") String identity,
+                            @Value("${provisioning.sharding.advertised-url}") String advertisedUrl,
+                            @Value("${provisioning.sharding.lease-duration-seconds}") int leaseDurationSeconds,
+                            @Value("${provisioning.sharding.renew-interval-millis}") long renewIntervalMillis,
+                            @Value("${server.port:8080}") int serverPort) {
+        this.kubernetesClient = kubernetesClient;
+        this.enabled = enabled;
+        this.shards = shards;
+        this.leaseNamespace = leaseNamespace == null || leaseNamespace.isBlank() ? kubernetesClient.getNamespace() : leaseNamespace;
+        this.leasePrefix = leasePrefix;
+        this.identity = identity == null || identity.isBlank() ? hostName() + "-" + UUID.randomUUID().toString().substring(0, 8) : identity;
+        this.advertisedUrl = advertisedUrl == null || advertisedUrl.isBlank() ? "http://" + hostAddress() + ":" + serverPort : advertisedUrl;
+        this.leaseDurationMillis = TimeUnit.SECONDS.toMillis(leaseDurationSeconds);
+        this.renewIntervalMillis = renewIntervalMillis;
+        this.inFlight = new AtomicIntegerArray(shards);
+        Gauge.builder("sharding.shards.owned", owned, Map::size)
+                .description("Shards of the namespace keys owned by this replica")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+
+        if (!enabled) {
+            log.info("Sharding disabled, this replica provisions every namespace.");
+            return;
+        }
+        running = true;
+        renewer = new Thread(this::run, "shard-lease-renewer");
+        renewer.setDaemon(true);
+        renewer.start();
+        log.info("Sharding {} keys over {} shards as {} ({})", leasePrefix, shards, identity, advertisedUrl);
+    }
+
+    /*
+     Hands every shard back right away, so the other replicas take over on their next renew
+     instead of waiting for the leases to expire.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+
+        if (renewer == null) {
+            return;
+        }
+        running = false;
+        renewer.interrupt();
+        renewer.join(TimeUnit.SECONDS.toMillis(10));
+        owned.values().forEach(shard -> shard.draining = true);
+        // Runs still executing keep their shard until they finish, at most until the lease would run out
+        long deadline = System.currentTimeMillis() + leaseDurationMillis - renewIntervalMillis;
+        for (OwnedShard shard : new ArrayList<>(owned.values())) {
+            while (inFlight.get(shard.shard) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            release(shard);
+        }
+        try {
+            kubernetesClient.leases().inNamespace(leaseNamespace).withName(memberLeaseName()).delete();
+        } catch (KubernetesClientException e) {
+            log.error("Error removing membership lease " + memberLeaseName() + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    public int shardOf(String key) {
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    /*
+     Whether this replica currently owns the shard of the key. Always true with sharding disabled.
+     */
+    public boolean owns(String key) {
+        if (!enabled) {
+            return true;
+        }
+        OwnedShard shard = owned.get(shardOf(key));
+        return shard != null && shard.isValid();
+    }
+
+    /*
+     Registers a run on the key when this replica owns its shard. A shard is only released once
+     every run registered on it called endRun.
+     */
+    public boolean tryBeginRun(String key) {
+
+        if (!enabled) {
+            return true;
+        }
+        int shard = shardOf(key);
+        OwnedShard ownedShard = owned.get(shard);
+        if (ownedShard == null || !ownedShard.isValid()) {
+            return false;
+        }
+        inFlight.incrementAndGet(shard);
+        // Checked again after registering, the renewer only releases a draining shard without runs
+        if (!ownedShard.isValid() || owned.get(shard) != ownedShard) {
+            inFlight.decrementAndGet(shard);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     Whether a run registered with tryBeginRun may go on writing: the shard is still ours and our lease on it
+     has not run out. A draining shard still qualifies, its runs are allowed to finish.
+     */
+    public boolean holdsRun(String key) {
+        if (!enabled) {
+            return true;
+        }
+        OwnedShard shard = owned.get(shardOf(key));
+        return shard != null && System.nanoTime() - shard.validUntilNanos < 0;
+    }
+
+    public void endRun(String key) {
+        if (enabled) {
+            inFlight.decrementAndGet(shardOf(key));
+        }
+    }
+
+    /*
+     URL of the replica holding the shard of the key, as seen on the last renew. Empty while the shard is free
+     or held by this replica.
+     */
+    public Optional<String> ownerUrl(String key) {
+        String holder = holders.get(shardOf(key));
+        if (holder == null || holder.equals(identity)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(memberUrls.get(holder));
+    }
+
+    public ShardAssignment assignment() {
+        return new ShardAssignment(identity, advertisedUrl, enabled, shards, new ArrayList<>(new TreeSet<>(owned.keySet())),
+                new ArrayList<>(new TreeSet<>(memberUrls.keySet())));
+    }
+
+    private void run() {
+
+        while (running) {
+            try {
+                renew();
+            } catch (Exception e) {
+                log.error("Error renewing shard leases: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(renewIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /*
+     One round: renew membership and owned shards, release the surplus, take free shards up to our share.
+     Costs one list plus one write per owned shard.
+     */
+    private void renew() {
+
+        long now = System.nanoTime();
+        Map<String, Lease> leases = new HashMap<>();
+        kubernetesClient.leases().inNamespace(leaseNamespace).withLabel(APP_LABEL, leasePrefix).list().getItems()
+                .forEach(lease -> leases.put(lease.getMetadata().getName(), lease));
+        observations.keySet().retainAll(leases.keySet());
+        leases.values().forEach(lease -> observe(lease, now));
+
+        renewMembership(leases.get(memberLeaseName()));
+        Map<String, String> urls = new HashMap<>();
+        urls.put(identity, advertisedUrl);
+        for (Lease lease : leases.values()) {
+            if ("member".equals(lease.getMetadata().getLabels().get(ROLE_LABEL)) && !isExpired(lease, now)
+                    && lease.getMetadata().getAnnotations() != null) {
+                urls.put(lease.getSpec().getHolderIdentity(), lease.getMetadata().getAnnotations().get(URL_ANNOTATION));
+            }
+        }
+        memberUrls = urls;
+        int target = (shards + urls.size() - 1) / urls.size();
+
+        for (OwnedShard shard : new ArrayList<>(owned.values())) {
+            renewShard(shard);
+        }
+        List<OwnedShard> active = new ArrayList<>();
+        owned.values().stream().filter(shard -> !shard.draining).forEach(active::add);
+        active.sort((a, b) -> Integer.compare(b.shard, a.shard));
+        for (int i = 0; i < active.size() - target; i++) {
+            active.get(i).draining = true;
+        }
+        for (OwnedShard shard : new ArrayList<>(owned.values())) {
+            if (shard.draining && inFlight.get(shard.shard) == 0) {
+                release(shard);
+            }
+        }
+
+        int start = Math.floorMod(identity.hashCode(), shards);
+        for (int i = 0; i < shards && owned.size() < target; i++) {
+            int shard = (start + i) % shards;
+            if (!owned.containsKey(shard)) {
+                Lease lease = leases.get(shardLeaseName(shard));
+                if (lease == null || isFree(lease, now)) {
+                    acquire(shard, lease);
+                }
+            }
+        }
+
+        Map<Integer, String> shardHolders = new HashMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Lease lease = leases.get(shardLeaseName(shard));
+            if (owned.containsKey(shard)) {
+                shardHolders.put(shard, identity);
+            } else if (lease != null && !isFree(lease, now)) {
+                shardHolders.put(shard, lease.getSpec().getHolderIdentity());
+            }
+        }
+        holders = shardHolders;
+    }
+
+    private void renewMembership(Lease lease) {
+
+        Lease member = new LeaseBuilder()
+                .withNewMetadata()
+                    .withName(memberLeaseName())
+                    .withNamespace(leaseNamespace)
+                    .addToLabels(APP_LABEL, leasePrefix)
+                    .addToLabels(ROLE_LABEL, "member")
+                    .addToAnnotations(URL_ANNOTATION, advertisedUrl)
+                .endMetadata()
+                .withNewSpec()
+                    .withHolderIdentity(identity)
+                    .withLeaseDurationSeconds((int) TimeUnit.MILLISECONDS.toSeconds(leaseDurationMillis))
+                    .withRenewTime(now())
+                .endSpec()
+                .build();
+        if (lease == null) {
+            kubernetesClient.leases().inNamespace(leaseNamespace).create(member);
+        } else {
+            kubernetesClient.leases().inNamespace(leaseNamespace).withName(memberLeaseName()).replace(member);
+        }
+    }
+
+    private void renewShard(OwnedShard shard) {
+
+        long start = System.nanoTime();
+        Lease lease = shard.lease;
+        lease.getSpec().setRenewTime(now());
+        try {
+            shard.lease = kubernetesClient.leases().inNamespace(leaseNamespace).withName(lease.getMetadata().getName())
+                    .lockResourceVersion(lease.getMetadata().getResourceVersion())
+                    .replace(lease);
+            shard.validUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(leaseDurationMillis);
+        } catch (KubernetesClientException e) {
+            if (e.getCode() == 409 || e.getCode() == 404) {
+                // Someone else holds it now, our runs on it stop at their next write
+                log.error("Lost shard " + shard.shard + ": " + e.getMessage());
+                owned.remove(shard.shard);
+            } else {
+                log.error("Error renewing shard " + shard.shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void acquire(int shard, Lease current) {
+
+        long start = System.nanoTime();
+        String name = shardLeaseName(shard);
+        int transitions = current == null || current.getSpec().getLeaseTransitions() == null ? 0 : current.getSpec().getLeaseTransitions() + 1;
+        Lease lease = new LeaseBuilder()
+                .withNewMetadata()
+                    .withName(name)
+                    .withNamespace(leaseNamespace)
+                    .addToLabels(APP_LABEL, leasePrefix)
+                    .addToLabels(ROLE_LABEL, "shard")
+                .endMetadata()
+                .withNewSpec()
+                    .withHolderIdentity(identity)
+                    .withLeaseDurationSeconds((int) TimeUnit.MILLISECONDS.toSeconds(leaseDurationMillis))
+                    .withAcquireTime(now())
+                    .withRenewTime(now())
+                    .withLeaseTransitions(transitions)
+                .endSpec()
+                .build();
+        try {
+            Lease acquired;
+            if (current == null) {
+                acquired = kubernetesClient.leases().inNamespace(leaseNamespace).create(lease);
+            } else {
+                // Only succeeds if nobody renewed or took the lease since we listed it
+                lease.getMetadata().setResourceVersion(current.getMetadata().getResourceVersion());
+                acquired = kubernetesClient.leases().inNamespace(leaseNamespace).withName(name)
+                        .lockResourceVersion(current.getMetadata().getResourceVersion())
+                        .replace(lease);
+            }
+            OwnedShard ownedShard = new OwnedShard(shard, acquired);
+            ownedShard.validUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(leaseDurationMillis);
+            owned.put(shard, ownedShard);
+            log.info("Acquired shard {}", shard);
+        } catch (KubernetesClientException e) {
+            if (e.getCode() != 409) {
+                log.error("Error acquiring shard " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void release(OwnedShard shard) {
+
+        owned.remove(shard.shard);
+        Lease lease = shard.lease;
+        lease.getSpec().setHolderIdentity(null);
+        lease.getSpec().setRenewTime(now());
+        try {
+            kubernetesClient.leases().inNamespace(leaseNamespace).withName(lease.getMetadata().getName())
+                    .lockResourceVersion(lease.getMetadata().getResourceVersion())
+                    .replace(lease);
+            log.info("Released shard {}", shard.shard);
+        } catch (KubernetesClientException e) {
+            // Expires on its own
+            log.error("Error releasing shard " + shard.shard + ": " + e.getMessage());
+        }
+    }
+
+    private void observe(Lease lease, long now) {
+        String marker = lease.getSpec().getHolderIdentity() + "@" + renewTime(lease);
+        Observation observation = observations.get(lease.getMetadata().getName());
+        if (observation == null || !observation.marker.equals(marker)) {
+            observations.put(lease.getMetadata().getName(), new Observation(marker, now));
+        }
+    }
+
+    private boolean isExpired(Lease lease, long now) {
+        Observation observation = observations.get(lease.getMetadata().getName());
+        return observation == null || now - observation.observedAtNanos > TimeUnit.MILLISECONDS.toNanos(leaseDurationMillis);
+    }
+
+    private boolean isFree(Lease lease, long now) {
+        String holder = lease.getSpec().getHolderIdentity();
+        return holder == null || holder.isEmpty() || isExpired(lease, now);
+    }
+
+    private static String renewTime(Lease lease) {
+        return lease.getSpec().getRenewTime() == null ? "" : lease.getSpec().getRenewTime().toString();
+    }
+
+    private String memberLeaseName() {
+        return leasePrefix + "-member-" + identity;
+    }
+
+    private String shardLeaseName(int shard) {
+        return leasePrefix + "-shard-" + shard;
+    }
+
+    private static ZonedDateTime now() {
+        return ZonedDateTime.now(ZoneOffset.UTC);
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    private static String hostAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    private final class OwnedShard {
+
+        private final int shard;
+        private volatile Lease lease;
+        private volatile long validUntilNanos;
+        private volatile boolean draining;
+
+        private OwnedShard(int shard, Lease lease) {
+            this.shard = shard;
+            this.lease = lease;
+        }
+
+        private boolean isValid() {
+            return running && !draining && System.nanoTime() - validUntilNanos < 0;
+        }
+    }
+
+    private static final class Observation {
+
+        private final String marker;
+        private final long observedAtNanos;
+
+        private Observation(String marker, long observedAtNanos) {
+            this.marker = marker;
+            this.observedAtNanos = observedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.imricki.spring.ocp.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+
+/*
+ Hands a run over to the replica owning its shard, through its /ocp/shards/provisionresources endpoint,
+ and waits for its report. The owner never forwards again: it answers 409 when it lost the shard meanwhile.
+ */
+@Slf4j
+@Component
+public class ShardForwarder {
+
+    static final String OWNED_PROVISIONING_PATH = "/ocp/shards/provisionresources";
+
+    private final ShardCoordinator shardCoordinator;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    @Autowired
+    public ShardForwarder(final ShardCoordinator shardCoordinator, final ObjectMapper objectMapper, final MeterRegistry meterRegistry,
+                          @Value("${provisioning.sharding.forward-connect-timeout-millis}") long connectTimeoutMillis,
+                          @Value("${provisioning.sharding.forward-timeout-millis}") long requestTimeoutMillis) {
+        this.shardCoordinator = shardCoordinator;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    }
+
+    /*
+     The report of the owner, or empty when the shard has no reachable owner right now and the caller should retry.
+     */
+    public Optional<ProvisioningReport> forward(NewApplicationEvent event) throws InterruptedException {
+
+        String namespaceName = event.namespaceName();
+        Optional<String> ownerUrl = shardCoordinator.ownerUrl(namespaceName);
+        if (ownerUrl.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(ownerUrl.get() + OWNED_PROVISIONING_PATH))
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(event)))
+                    .build();
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 409) {
+                log.info("{} is no longer the owner of {}, retrying...", ownerUrl.get(), namespaceName);
+                count("refused");
+                return Optional.empty();
+            }
+            if (response.statusCode() != 200 && response.statusCode() != 500) {
+                throw new IllegalStateException("Owner " + ownerUrl.get() + " answered " + response.statusCode() + " for " + namespaceName);
+            }
+            // 500 carries the report of a failed run, like the local call would return it, or an error if the run threw
+            ProvisioningReport report = objectMapper.readValue(response.body(), ProvisioningReport.class);
+            if (report.getSteps() == null) {
+                throw new IllegalStateException("Provisioning of " + namespaceName + " failed on " + ownerUrl.get());
+            }
+            log.info("Provisioning of {} forwarded to {}", namespaceName, ownerUrl.get());
+            count("forwarded");
+            return Optional.of(report);
+        } catch (IOException e) {
+            // Owner unreachable, most likely going away: its lease expires and another replica takes the shard
+            log.error("Error forwarding " + namespaceName + " to " + ownerUrl.get() + ": " + e.getMessage());
+            count("unreachable");
+            return Optional.empty();
+        }
+    }
+
+    private void count(String outcome) {
+        Counter.builder("sharding.handoffs")
+                .description("Runs handed over to the replica owning their shard, by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,148 @@
+package com.imricki.spring.ocp.streams;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.Repartitioned;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.TimestampedKeyValueStore;
+import org.apache.kafka.streams.state.ValueAndTimestamp;
+import org.springframework.kafka.support.serializer.JsonSerde;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Collapses bursts of NewApplicationEvent into single provisioning commands. Events are re-keyed by
+ environment-applicationName; the first event of a key opens a window, later ones within it only replace
+ the pending event, and when the window closes the latest event is sent to the commands topic.
+ Open windows are also indexed by closing time in a second store, so the punctuator only reads the windows
+ that are due instead of every pending key. Kept free of Spring so it can be driven by TopologyTestDriver.
+ */
+public final class EventCoalescingTopology {
+
+    public static final String PENDING_STORE = "pending-provision-commands";
+    public static final String DEADLINE_STORE = "provision-command-deadlines";
+
+    private static final Duration PUNCTUATE_INTERVAL = Duration.ofSeconds(1);
+
+    private EventCoalescingTopology() {
+        // Private constructor to prevent instantiation
+    }
+
+    public static void build(StreamsBuilder builder, String inputTopic, String commandsTopic, Duration window) {
+
+        Serde<String> keySerde = Serdes.String();
+        Serde<NewApplicationEvent> eventSerde = new JsonSerde<>(NewApplicationEvent.class).noTypeInfo().ignoreTypeHeaders();
+
+        builder.addStateStore(Stores.timestampedKeyValueStoreBuilder(
+                Stores.persistentTimestampedKeyValueStore(PENDING_STORE), keySerde, eventSerde));
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(DEADLINE_STORE), Serdes.Bytes(), keySerde));
+
+        builder.stream(inputTopic, Consumed.with(keySerde, eventSerde))
+                .filter((key, event) -> event != null)
+                .selectKey((key, event) -> event.namespaceName())
+                // Co-locate every event of a key with its pending state
+                .repartition(Repartitioned.<String, NewApplicationEvent>with(keySerde, eventSerde).withName("by-namespace"))
+                .process(() -> new CoalescingProcessor(window), PENDING_STORE, DEADLINE_STORE)
+                .to(commandsTopic, Produced.with(keySerde, eventSerde));
+    }
+
+    static final class CoalescingProcessor implements Processor<String, NewApplicationEvent, String, NewApplicationEvent> {
+
+        private final long windowMillis;
+        private ProcessorContext<String, NewApplicationEvent> context;
+        private TimestampedKeyValueStore<String, NewApplicationEvent> pending;
+        // Closing time (big-endian, so the store keeps it ordered) followed by the key, mapped to the key
+        private KeyValueStore<Bytes, String> deadlines;
+
+        CoalescingProcessor(Duration window) {
+            this.windowMillis = window.toMillis();
+        }
+
+        @Override
+        public void init(ProcessorContext<String, NewApplicationEvent> context) {
+            this.context = context;
+            this.pending = context.getStateStore(PENDING_STORE);
+            this.deadlines = context.getStateStore(DEADLINE_STORE);
+            indexPendingWindows();
+            context.schedule(PUNCTUATE_INTERVAL, PunctuationType.WALL_CLOCK_TIME, this::emitExpired);
+        }
+
+        @Override
+        public void process(Record<String, NewApplicationEvent> record) {
+
+            ValueAndTimestamp<NewApplicationEvent> current = pending.get(record.key());
+            // The window is anchored on the first event, so a key that keeps receiving events is still emitted
+            long openedAt = current == null ? context.currentSystemTimeMs() : current.timestamp();
+            pending.put(record.key(), ValueAndTimestamp.make(record.value(), openedAt));
+            if (current == null) {
+                deadlines.put(deadlineKey(openedAt + windowMillis, record.key()), record.key());
+            }
+        }
+
+        /*
+         Windows left open by a version without the deadline index would never close, index them once.
+         */
+        private void indexPendingWindows() {
+
+            try (KeyValueIterator<Bytes, String> indexed = deadlines.all()) {
+                if (indexed.hasNext()) {
+                    return;
+                }
+            }
+            try (KeyValueIterator<String, ValueAndTimestamp<NewApplicationEvent>> iterator = pending.all()) {
+                while (iterator.hasNext()) {
+                    KeyValue<String, ValueAndTimestamp<NewApplicationEvent>> entry = iterator.next();
+                    deadlines.put(deadlineKey(entry.value.timestamp() + windowMillis, entry.key), entry.key);
+                }
+            }
+        }
+
+        private void emitExpired(long now) {
+
+            List<KeyValue<Bytes, String>> expired = new ArrayList<>();
+            try (KeyValueIterator<Bytes, String> iterator = deadlines.all()) {
+                while (iterator.hasNext()) {
+                    KeyValue<Bytes, String> entry = iterator.next();
+                    if (closesAt(entry.key) > now) {
+                        break;
+                    }
+                    expired.add(entry);
+                }
+            }
+            for (KeyValue<Bytes, String> entry : expired) {
+                ValueAndTimestamp<NewApplicationEvent> event = pending.get(entry.value);
+                if (event != null) {
+                    context.forward(new Record<>(entry.value, event.value(), now));
+                    pending.delete(entry.value);
+                }
+                deadlines.delete(entry.key);
+            }
+        }
+    }
+
+    static Bytes deadlineKey(long closesAt, String key) {
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        return Bytes.wrap(ByteBuffer.allocate(Long.BYTES + name.length).putLong(closesAt).put(name).array());
+    }
+
+    static long closesAt(Bytes deadlineKey) {
+        return ByteBuffer.wrap(deadlineKey.get()).getLong();
+    }
+}
@@ -0,0 +1,247 @@
+package com.imricki.spring.ocp.utils;
+
+import com.imricki.spring.ocp.config.ResourceProfileProperties;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.LimitRange;
+import io.fabric8.kubernetes.api.model.LimitRangeBuilder;
+import io.fabric8.kubernetes.api.model.LimitRangeItem;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.ResourceQuotaBuilder;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.api.model.ServiceAccount;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.api.model.rbac.RoleBinding;
+import io.fabric8.kubernetes.api.model.rbac.RoleBindingBuilder;
+import io.fabric8.kubernetes.api.model.rbac.RoleRefBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Builds the desired manifests ProvisioningUtils writes for a namespace, without talking to the cluster.
+ Everything that does not depend on the namespace is validated and built once at startup, per environment
+ profile where it varies; a request only gets fresh metadata stamped with its namespace. The specs of
+ the templates are shared between all copies and must never be mutated.
+ */
+@Slf4j
+@Component
+public class ManifestFactory {
+
+    // Environment a namespace was provisioned for, lowercase; DeprovisioningService and DriftReconciler select on it
+    public static final String ENVIRONMENT_LABEL = "ocp.imricki.com/environment";
+
+    private final OCPResources ocpResources;
+    private final NetworkPolicyTemplateRegistry networkPolicyTemplates;
+    private final Map<String, String> applicationLabels;
+    private final Map<String, Map<String, String>> namespaceLabels = new ConcurrentHashMap<>();
+    private final Map<String, CompiledProfile> profiles = new LinkedHashMap<>();
+    private final CompiledProfile defaultProfile;
+    private final RoleBinding roleBindingTemplate;
+    private final Secret secretTemplate;
+
+    @Autowired
+    public ManifestFactory(final OCPResources ocpResources, final NetworkPolicyTemplateRegistry networkPolicyTemplates,
+                           final ResourceProfileProperties resourceProfileProperties) {
+        this.ocpResources = ocpResources;
+        this.networkPolicyTemplates = networkPolicyTemplates;
+        this.applicationLabels = Collections.singletonMap(ocpResources.getApplicationLabelKey(), ocpResources.getApplicationLabelValue());
+
+        ResourceProfileProperties.Profile defaults = new ResourceProfileProperties.Profile();
+        defaults.setCpuLimit(ocpResources.getCpuLimit());
+        defaults.setMemoryLimit(ocpResources.getMemoryLimit());
+        this.defaultProfile = compile("default", defaults, defaults);
+        resourceProfileProperties.getProfiles().forEach((environment, profile) ->
+                profiles.put(environment.toLowerCase(Locale.ROOT), compile(environment, profile, defaults)));
+        log.info("Compiled resource profiles for environments {}", profiles.keySet());
+
+        this.roleBindingTemplate = new RoleBindingBuilder()
+                .withRoleRef(new RoleRefBuilder()
+                        .withKind("Role") // This could also be "ClusterRole"
+                        .withName(ocpResources.getRoleName())
+                        .build())
+                .addNewSubject()
+                .withKind("ServiceAccount")
+                .withName(ocpResources.getServiceAccountName())
+                .endSubject()
+                .build();
+
+        // Encode the secret data to base64
+        String encodedSecretValue = Base64.getEncoder().encodeToString(ocpResources.getSecretDataValue().getBytes());
+        this.secretTemplate = new SecretBuilder()
+                .withType("Opaque") // Change this to the appropriate type if needed
+                .addToData(ocpResources.getSecretDataKey(), encodedSecretValue)
+                .build();
+    }
+
+    public Namespace namespace(String namespaceName, String environment) {
+
+        Namespace newNamespace = new Namespace();
+        newNamespace.setMetadata(metadata(namespaceName, null));
+        if (environment != null) {
+            newNamespace.getMetadata().setLabels(namespaceLabels.computeIfAbsent(environmentLabelValue(environment), value -> {
+                Map<String, String> labels = new LinkedHashMap<>(applicationLabels);
+                labels.put(ENVIRONMENT_LABEL, value);
+                return Collections.unmodifiableMap(labels);
+            }));
+        }
+        return newNamespace;
+    }
+
+    public LimitRange limitRange(String namespaceName, String environment) {
+
+        LimitRange limitRange = new LimitRange();
+        limitRange.setMetadata(metadata(ocpResources.getLimitRangeName(), namespaceName));
+        limitRange.setSpec(profile(environment).limitRange.getSpec());
+        return limitRange;
+    }
+
+    public ResourceQuota resourceQuota(String namespaceName, String environment) {
+
+        ResourceQuota resourceQuota = new ResourceQuota();
+        resourceQuota.setMetadata(metadata(ocpResources.getResourceQuotaName(), namespaceName));
+        resourceQuota.setSpec(profile(environment).resourceQuota.getSpec());
+        return resourceQuota;
+    }
+
+    public ServiceAccount serviceAccount(String namespaceName) {
+
+        ServiceAccount serviceAccount = new ServiceAccount();
+        serviceAccount.setMetadata(metadata(ocpResources.getServiceAccountName(), namespaceName));
+        return serviceAccount;
+    }
+
+    public RoleBinding roleBinding(String namespaceName) {
+
+        RoleBinding roleBinding = new RoleBinding();
+        roleBinding.setMetadata(metadata(roleBindingName(), namespaceName));
+        roleBinding.setRoleRef(roleBindingTemplate.getRoleRef());
+        roleBinding.setSubjects(roleBindingTemplate.getSubjects());
+        return roleBinding;
+    }
+
+    public Secret secret(String namespaceName) {
+
+        Secret secret = new Secret();
+        secret.setMetadata(metadata(ocpResources.getSecretName(), namespaceName));
+        secret.setType(secretTemplate.getType());
+        secret.setData(secretTemplate.getData());
+        return secret;
+    }
+
+    /*
+     Every NetworkPolicy template of the environment, copied for the namespace.
+     */
+    public List<NetworkPolicy> networkPolicies(String namespaceName, String environment) {
+        return networkPolicyTemplates.forNamespace(environment, namespaceName, applicationLabels);
+    }
+
+    /*
+     Every object provisioned for the namespace, in provisioning order.
+     */
+    public List<HasMetadata> desiredState(String namespaceName, String environment) {
+
+        List<HasMetadata> desired = new ArrayList<>();
+        desired.add(namespace(namespaceName, environment));
+        desired.add(limitRange(namespaceName, environment));
+        desired.add(resourceQuota(namespaceName, environment));
+        desired.add(serviceAccount(namespaceName));
+        desired.add(roleBinding(namespaceName));
+        desired.add(secret(namespaceName));
+        desired.addAll(networkPolicies(namespaceName, environment));
+        return desired;
+    }
+
+    public Map<String, String> applicationLabels() {
+        return applicationLabels;
+    }
+
+    public static String environmentLabelValue(String environment) {
+        return environment.toLowerCase(Locale.ROOT);
+    }
+
+    public String roleBindingName() {
+        return "rolebinding-" + ocpResources.getServiceAccountName();
+    }
+
+    /*
+     Fresh metadata for a copy. It carries the application labels, the informers in ResourceCache only watch objects with them.
+     */
+    private ObjectMeta metadata(String name, String namespaceName) {
+
+        ObjectMeta metadata = new ObjectMeta();
+        metadata.setName(name);
+        metadata.setNamespace(namespaceName);
+        metadata.setLabels(applicationLabels);
+        return metadata;
+    }
+
+    private CompiledProfile profile(String environment) {
+        return environment == null ? defaultProfile : profiles.getOrDefault(environment.toLowerCase(Locale.ROOT), defaultProfile);
+    }
+
+    private static CompiledProfile compile(String environment, ResourceProfileProperties.Profile profile,
+                                           ResourceProfileProperties.Profile defaults) {
+
+        Quantity cpuQuantity = quantity(environment, "cpu-limit", profile.getCpuLimit() != null ? profile.getCpuLimit() : defaults.getCpuLimit());
+        Quantity memoryQuantity = quantity(environment, "memory-limit",
+                profile.getMemoryLimit() != null ? profile.getMemoryLimit() : defaults.getMemoryLimit());
+
+        // Create or load your LimitRange object
+        LimitRangeItem limitRangeItem = new LimitRangeItem();
+        limitRangeItem.setType("Container");
+        limitRangeItem.setDefaultRequest(Collections.singletonMap("cpu", cpuQuantity));
+        limitRangeItem.setDefault(Collections.singletonMap("cpu", cpuQuantity));
+
+        LimitRange limitRange = new LimitRangeBuilder()
+                .withNewSpec()
+                .withLimits(limitRangeItem)
+                .endSpec()
+                .build();
+
+        ResourceQuota resourceQuota = new ResourceQuotaBuilder()
+                .withNewSpec()
+                .addToHard("limits.cpu", cpuQuantity)
+                .addToHard("limits.memory", memoryQuantity)
+                .endSpec()
+                .build();
+
+        return new CompiledProfile(limitRange, resourceQuota);
+    }
+
+    private static Quantity quantity(String environment, String property, String value) {
+
+        try {
+            Quantity quantity = new Quantity(value);
+            if (Quantity.getAmountInBytes(quantity).signum() <= 0) {
+                throw new IllegalArgumentException("must be positive");
+            }
+            return quantity;
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Invalid " + property + " '" + value + "' in resource profile " + environment + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static final class CompiledProfile {
+
+        private final LimitRange limitRange;
+        private final ResourceQuota resourceQuota;
+
+        private CompiledProfile(LimitRange limitRange, ResourceQuota resourceQuota) {
+            this.limitRange = limitRange;
+            this.resourceQuota = resourceQuota;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.imricki.spring.ocp.utils;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Stamps generated manifests with a hash of their desired state, so a later run can tell
+ from the live object alone whether a write would change anything.
+ */
+public final class ManifestHasher {
+
+    public static final String SPEC_HASH_ANNOTATION = "ocp.imricki.com/spec-hash";
+
+    private ManifestHasher() {
+        // Private constructor to prevent instantiation
+    }
+
+    /*
+     Computes the hash of the desired object, as built by ProvisioningUtils, and stores it
+     in the spec-hash annotation. Returns the hash.
+     */
+    public static String stamp(HasMetadata desired) {
+
+        Map<String, String> annotations = desired.getMetadata().getAnnotations() == null
+                ? new LinkedHashMap<>() : new LinkedHashMap<>(desired.getMetadata().getAnnotations());
+        annotations.remove(SPEC_HASH_ANNOTATION);
+        desired.getMetadata().setAnnotations(annotations);
+
+        String hash = sha256(Serialization.asJson(desired));
+        annotations.put(SPEC_HASH_ANNOTATION, hash);
+        return hash;
+    }
+
+    /*
+     True when the live object carries the given hash, that is, it was written from an identical manifest.
+     */
+    public static boolean matches(HasMetadata live, String hash) {
+        return live != null
+                && live.getMetadata() != null
+                && live.getMetadata().getAnnotations() != null
+                && hash.equals(live.getMetadata().getAnnotations().get(SPEC_HASH_ANNOTATION));
+    }
+
+    /*
+     Hex SHA-256 of the UTF-8 content.
+     */
+    public static String sha256(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.imricki.spring.ocp.utils;
+
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ Parsed NetworkPolicy templates, keyed by environment and template name.
+ The bundled /network-policy.yml, the policy every namespace has always received, applies to every environment.
+ When a template directory is configured, YAML files directly in it apply to every environment as well, and files in <directory>/<environment>/
+ add to them or override them by name. Files may hold several documents separated by "---".
+ Templates are parsed once; the directory is watched and the whole set is swapped atomically on change.
+ If the watch fails it is registered again after a pause, and the templates are re-read in case a change was missed.
+ */
+@Slf4j
+@Component
+public class NetworkPolicyTemplateRegistry {
+
+    private static final String CLASSPATH_TEMPLATE = "/network-policy.yml";
+    private static final String ALL_ENVIRONMENTS = "";
+    private static final Pattern DOCUMENT_SEPARATOR = Pattern.compile("(?m)^---\\s*$");
+    private static final long REWATCH_DELAY_MILLIS = 1000;
+
+    private final String directory;
+    private volatile Map<String, Map<String, NetworkPolicy>> templates = Collections.emptyMap();
+    private volatile WatchService watchService;
+    private volatile boolean stopped;
+    private Thread watcher;
+
+    public NetworkPolicyTemplateRegistry(@Value("${provisioning.network-policies.directory:}") String directory) {
+        this.directory = directory;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+
+        reload();
+        if (!directory.isBlank()) {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerDirectories();
+            watcher = new Thread(this::watch, "network-policy-template-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        stopped = true;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /*
+     Returns a copy of every template that applies to the environment, with fresh metadata carrying the namespace
+     and the template labels plus the given ones. The parsed spec is shared by all copies and must not be mutated.
+     */
+    public List<NetworkPolicy> forNamespace(String environment, String namespaceName, Map<String, String> labels) {
+
+        Map<String, Map<String, NetworkPolicy>> current = templates;
+        Map<String, NetworkPolicy> applicable = new LinkedHashMap<>(current.getOrDefault(ALL_ENVIRONMENTS, Collections.emptyMap()));
+        applicable.putAll(current.getOrDefault(normalize(environment), Collections.emptyMap()));
+
+        List<NetworkPolicy> policies = new ArrayList<>(applicable.size());
+        for (NetworkPolicy template : applicable.values()) {
+            Map<String, String> policyLabels = new LinkedHashMap<>();
+            if (template.getMetadata().getLabels() != null) {
+                policyLabels.putAll(template.getMetadata().getLabels());
+            }
+            policyLabels.putAll(labels);
+
+            ObjectMeta metadata = new ObjectMeta();
+            metadata.setName(template.getMetadata().getName());
+            metadata.setNamespace(namespaceName);
+            metadata.setLabels(policyLabels);
+            if (template.getMetadata().getAnnotations() != null) {
+                metadata.setAnnotations(new LinkedHashMap<>(template.getMetadata().getAnnotations()));
+            }
+
+            NetworkPolicy policy = new NetworkPolicy();
+            policy.setMetadata(metadata);
+            policy.setSpec(template.getSpec());
+            policies.add(policy);
+        }
+        return policies;
+    }
+
+    /*
+     Re-reads every template source and replaces the current set, keeping the previous one if anything fails to parse.
+     */
+    public synchronized void reload() {
+
+        try {
+            Map<String, Map<String, NetworkPolicy>> loaded = new LinkedHashMap<>();
+            try (InputStream inputStream = getClass().getResourceAsStream(CLASSPATH_TEMPLATE)) {
+                if (inputStream != null) {
+                    addAll(loaded, ALL_ENVIRONMENTS, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+                } else {
+                    log.error("NetworkPolicy YAML file not found.");
+                }
+            }
+            if (!directory.isBlank()) {
+                Path root = Paths.get(directory);
+                if (Files.isDirectory(root)) {
+                    loadDirectory(loaded, ALL_ENVIRONMENTS, root);
+                    try (DirectoryStream<Path> environments = Files.newDirectoryStream(root, Files::isDirectory)) {
+                        for (Path environmentDirectory : environments) {
+                            loadDirectory(loaded, normalize(environmentDirectory.getFileName().toString()), environmentDirectory);
+                        }
+                    }
+                }
+            }
+            templates = loaded;
+            log.info("Loaded NetworkPolicy templates: {}", describe(loaded));
+        } catch (Exception e) {
+            log.error("Error loading NetworkPolicy templates, keeping the previous ones: " + e.getMessage());
+        }
+    }
+
+    private void loadDirectory(Map<String, Map<String, NetworkPolicy>> loaded, String environment, Path path) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.{yml,yaml}")) {
+            for (Path file : files) {
+                addAll(loaded, environment, Files.readString(file));
+            }
+        }
+    }
+
+    private static void addAll(Map<String, Map<String, NetworkPolicy>> loaded, String environment, String yaml) {
+        for (String document : DOCUMENT_SEPARATOR.split(yaml)) {
+            if (document.isBlank()) {
+                continue;
+            }
+            NetworkPolicy template = Serialization.unmarshal(document, NetworkPolicy.class);
+            loaded.computeIfAbsent(environment, key -> new LinkedHashMap<>()).put(template.getMetadata().getName(), template);
+        }
+    }
+
+    private void watch() {
+        while (!stopped) {
+            try {
+                WatchKey key = watchService.take();
+                // Let an editor or a ConfigMap update finish writing before re-reading
+                Thread.sleep(200);
+                key.pollEvents();
+                key.reset();
+                registerDirectories();
+                reload();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException | IOException e) {
+                if (stopped) {
+                    break;
+                }
+                log.error("Error watching NetworkPolicy templates, watching them again: " + e.getMessage());
+                try {
+                    Thread.sleep(REWATCH_DELAY_MILLIS);
+                    rewatch();
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException retryFailure) {
+                    // The next take() fails on the closed service and lands here again
+                    log.error("Error registering the NetworkPolicy template watch: " + retryFailure.getMessage());
+                }
+            }
+        }
+        log.info("NetworkPolicy template watcher stopped");
+    }
+
+    private void rewatch() throws IOException {
+        WatchService previous = watchService;
+        try {
+            previous.close();
+        } catch (IOException e) {
+            log.error("Error closing the NetworkPolicy template watch: " + e.getMessage());
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        registerDirectories();
+        reload();
+    }
+
+    private void registerDirectories() throws IOException {
+        Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        try (DirectoryStream<Path> environments = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path environmentDirectory : environments) {
+                environmentDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private static String normalize(String environment) {
+        return environment == null ? ALL_ENVIRONMENTS : environment.toLowerCase(Locale.ROOT);
+    }
+
+    private static String describe(Map<String, Map<String, NetworkPolicy>> loaded) {
+        Map<String, Object> names = new LinkedHashMap<>();
+        loaded.forEach((environment, byName) -> names.put(environment.isEmpty() ? "*" : environment, byName.keySet()));
+        return names.toString();
+    }
+}
@@ -44,15 +44,6 @@ public class OCPResources {
     @Value("${secret-data-value}")
     private String secretDataValue;
 
-    @Value("${network-policy}")
-    private String networkPolicy;
-
-    @Value("${network-key}")
-    private String networkKey;
-
-    @Value("${network-value}")
-    private String networkValue;
-
     private OCPResources() {
         // Private constructor to prevent instantiation
     }
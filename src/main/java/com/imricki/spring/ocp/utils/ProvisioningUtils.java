@@ -1,124 +1,115 @@
 package com.imricki.spring.ocp.utils;
 
-import io.fabric8.kubernetes.api.model.*;
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.event.ProvisioningResult;
+import com.imricki.spring.ocp.helm.HelmChartRenderer;
+import com.imricki.spring.ocp.reporting.ResultPublisher;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.LimitRange;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.ServiceAccount;
 import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
-import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicyBuilder;
 import io.fabric8.kubernetes.api.model.rbac.RoleBinding;
-import io.fabric8.kubernetes.api.model.rbac.RoleBindingBuilder;
-import io.fabric8.kubernetes.api.model.rbac.RoleRefBuilder;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.dsl.ExecWatch;
-import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.dsl.Resource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Base64;
-import java.util.Collections;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
 public class ProvisioningUtils {
 
-    private final KubernetesClient kubernetesClient;
+    private final KubernetesClientPool kubernetesClientPool;
     private final OCPResources ocpResources;
-    private final NetworkPolicyLoader networkPolicyLoader;
+    private final ManifestFactory manifestFactory;
+    private final ResourceCache resourceCache;
+    private final MeterRegistry meterRegistry;
+    private final ResultPublisher resultPublisher;
+    private final HelmChartRenderer helmChartRenderer;
+    private final TaskExecutor helmApplyTaskExecutor;
 
     @Autowired
-    public ProvisioningUtils(final KubernetesClient kubernetesClient, final OCPResources ocpResources, final NetworkPolicyLoader networkPolicyLoader) {
-        this.kubernetesClient = kubernetesClient;
+    public ProvisioningUtils(final KubernetesClientPool kubernetesClientPool, final OCPResources ocpResources,
+                             final ManifestFactory manifestFactory, final ResourceCache resourceCache, final MeterRegistry meterRegistry,
+                             final ResultPublisher resultPublisher, final HelmChartRenderer helmChartRenderer,
+                             @Qualifier("helmApplyTaskExecutor") final TaskExecutor helmApplyTaskExecutor) {
+        this.kubernetesClientPool = kubernetesClientPool;
         this.ocpResources = ocpResources;
-        this.networkPolicyLoader = networkPolicyLoader;
+        this.manifestFactory = manifestFactory;
+        this.resourceCache = resourceCache;
+        this.meterRegistry = meterRegistry;
+        this.resultPublisher = resultPublisher;
+        this.helmChartRenderer = helmChartRenderer;
+        this.helmApplyTaskExecutor = helmApplyTaskExecutor;
     }
 
     /*
          Creates a new Kubernetes namespace with the provided name.
          It uses the NamespaceBuilder to construct a new Namespace object
-         and then uses the Kubernetes client to create or replace the namespace in the cluster.
+         and then uses the Kubernetes client to create or replace the namespace in the cluster of the environment.
         */
-    public void createNamespace(String namespaceName) {
-
-        Namespace newNamespace = new Namespace();
-        ObjectMeta metadata = new ObjectMeta();
-        metadata.setName(namespaceName);
-        metadata.setLabels(Collections.singletonMap(ocpResources.getApplicationLabelKey(), ocpResources.getApplicationLabelValue()));
-        newNamespace.setMetadata(metadata);
-        kubernetesClient.namespaces().createOrReplace(newNamespace);
-        log.info("Namespace created successfully...");
+    public void createNamespace(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        Namespace newNamespace = manifestFactory.namespace(namespaceName, environment);
+
+        Namespace existingNamespace = resourceCache.get(cluster.getName(), Namespace.class, null, namespaceName,
+                () -> kubernetesClient.namespaces().withName(namespaceName).get());
+        createOrReplaceIfChanged(newNamespace, existingNamespace,
+                () -> kubernetesClient.namespaces().withName(namespaceName).get(),
+                () -> kubernetesClient.namespaces().create(newNamespace),
+                () -> kubernetesClient.namespaces().createOrReplace(newNamespace));
     }
 
     /*
      This method creates resource quotas and limit ranges for CPU and memory in the specified namespace.
-     It utilizes the ResourceQuotaBuilder and LimitRangeBuilder
-     to create and configure these resource management policies.
+     Both are built from the resource profile of the environment and replaced when the profile changes.
    */
-    public void createLimitsAndQuotas(String namespaceName) {
-
-        Quantity cpuQuantity = new Quantity(ocpResources.getCpuLimit());
-        Quantity memoryQuantity = new Quantity(ocpResources.getMemoryLimit());
-
-        // Create or load your LimitRange object
-        LimitRangeItem limitRangeItem = new LimitRangeItem();
-        limitRangeItem.setType("Container");
-        limitRangeItem.setDefaultRequest(Collections.singletonMap("cpu", new Quantity(ocpResources.getCpuLimit())));
-        limitRangeItem.setDefault(Collections.singletonMap("cpu", new Quantity(ocpResources.getCpuLimit())));
-
-        LimitRange limitRange = new LimitRangeBuilder()
-                .withNewMetadata()
-                .withName(ocpResources.getLimitRangeName()) // Replace with a valid name
-                .endMetadata()
-                .withNewSpec()
-                .withLimits(limitRangeItem)
-                .endSpec()
-                .build();
-
-        // Check if the LimitRange already exists by trying to get it
-        LimitRange existingLimitRange = kubernetesClient.limitRanges().inNamespace(namespaceName)
-                .withName(ocpResources.getLimitRangeName()) // Replace with a valid name
-                .get();
-
-        if (existingLimitRange != null) {
-            log.info("LimitRange already exists");
-        } else {
-            // LimitRange does not exist, create it
-            kubernetesClient.limitRanges().inNamespace(namespaceName)
-                    .create(limitRange);
-            log.info("LimitRange created successfully.");
-        }
-
-        // Create ResourceQuota
-        ResourceQuota resourceQuota = new ResourceQuotaBuilder()
-                .withNewMetadata()
-                .withName(ocpResources.getResourceQuotaName()) // Replace with a valid name
-                .withNamespace(namespaceName)
-                .endMetadata()
-                .withNewSpec()
-                .addToHard("limits.cpu", cpuQuantity)
-                .addToHard("limits.memory", memoryQuantity)
-                .endSpec()
-                .build();
-
-        ResourceQuota existingResourceQuota = kubernetesClient.resourceQuotas().inNamespace(namespaceName)
-                .withName(ocpResources.getResourceQuotaName())
-                .get();
-
-        if (existingResourceQuota != null) {
-            log.info("LimitRange already exists.");
-        } else {
-            // LimitRange does not exist, create it
-            kubernetesClient.resourceQuotas().inNamespace(namespaceName)
-                    .create(resourceQuota);
-            log.info("LimitRange created successfully.");
-        }
+    public void createLimitsAndQuotas(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        String limitRangeName = ocpResources.getLimitRangeName();
+        LimitRange limitRange = manifestFactory.limitRange(namespaceName, environment);
+
+        // Answered by the informer cache when it is synced
+        LimitRange existingLimitRange = resourceCache.get(cluster.getName(), LimitRange.class, namespaceName, limitRangeName,
+                () -> kubernetesClient.limitRanges().inNamespace(namespaceName).withName(limitRangeName).get());
+        createOrReplaceIfChanged(limitRange, existingLimitRange,
+                () -> kubernetesClient.limitRanges().inNamespace(namespaceName).withName(limitRangeName).get(),
+                () -> kubernetesClient.limitRanges().inNamespace(namespaceName).create(limitRange),
+                () -> kubernetesClient.limitRanges().inNamespace(namespaceName).createOrReplace(limitRange));
+
+        String resourceQuotaName = ocpResources.getResourceQuotaName();
+        ResourceQuota resourceQuota = manifestFactory.resourceQuota(namespaceName, environment);
+
+        ResourceQuota existingResourceQuota = resourceCache.get(cluster.getName(), ResourceQuota.class, namespaceName, resourceQuotaName,
+                () -> kubernetesClient.resourceQuotas().inNamespace(namespaceName).withName(resourceQuotaName).get());
+        createOrReplaceIfChanged(resourceQuota, existingResourceQuota,
+                () -> kubernetesClient.resourceQuotas().inNamespace(namespaceName).withName(resourceQuotaName).get(),
+                () -> kubernetesClient.resourceQuotas().inNamespace(namespaceName).create(resourceQuota),
+                () -> kubernetesClient.resourceQuotas().inNamespace(namespaceName).createOrReplace(resourceQuota));
 
         log.info("ResourceQuota and LimitRange created successfully...");
     }
@@ -126,50 +117,37 @@ public class ProvisioningUtils {
      This method creates a new Kubernetes service account within the given namespace.
      It uses the ServiceAccountBuilder to define and configure the service account.
     */
-    public void createServiceAccount(String namespaceName) {
-
-        ServiceAccount serviceAccount = new ServiceAccountBuilder()
-                .withNewMetadata()
-                .withName(ocpResources.getServiceAccountName())
-                .withNamespace(namespaceName)
-                .endMetadata()
-                .build();
-
-        kubernetesClient.serviceAccounts().inNamespace(namespaceName).createOrReplace(serviceAccount);
-        log.info("ServiceAccount created successfully...");
+    public void createServiceAccount(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        ServiceAccount serviceAccount = manifestFactory.serviceAccount(namespaceName);
+
+        ServiceAccount existingServiceAccount = resourceCache.get(cluster.getName(), ServiceAccount.class, namespaceName, ocpResources.getServiceAccountName(),
+                () -> kubernetesClient.serviceAccounts().inNamespace(namespaceName).withName(ocpResources.getServiceAccountName()).get());
+        createOrReplaceIfChanged(serviceAccount, existingServiceAccount,
+                () -> kubernetesClient.serviceAccounts().inNamespace(namespaceName).withName(ocpResources.getServiceAccountName()).get(),
+                () -> kubernetesClient.serviceAccounts().inNamespace(namespaceName).create(serviceAccount),
+                () -> kubernetesClient.serviceAccounts().inNamespace(namespaceName).createOrReplace(serviceAccount));
     }
 
     /*
     This method creates a role binding for a specific service account and role (or cluster role).
     It uses the RoleBindingBuilder to construct the role binding, specifying the service account and role reference.
    */
-    public void createRoleBindings(String namespaceName) {
-
-        RoleBinding roleBinding = new RoleBindingBuilder()
-                .withNewMetadata()
-                .withName("rolebinding-" + ocpResources.getServiceAccountName())
-                .withNamespace(namespaceName)
-                .endMetadata()
-                .withRoleRef(new RoleRefBuilder()
-                        .withKind("Role") // This could also be "ClusterRole"
-                        .withName(ocpResources.getRoleName())
-                        .build())
-                .addNewSubject()
-                .withKind("ServiceAccount")
-                .withName(ocpResources.getServiceAccountName())
-                .endSubject()
-                .build();
-
-        RoleBinding existingBinding = kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).createOrReplace(roleBinding);
-
-        if (existingBinding != null) {
-            // RoleBinding already exists
-            log.info("RoleBinding already exists");
-        } else {
-            // Secret does not exist, create it
-            kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).create(roleBinding);
-            log.info("RoleBinding created successfully.");
-        }
+    public void createRoleBindings(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        String roleBindingName = manifestFactory.roleBindingName();
+        RoleBinding roleBinding = manifestFactory.roleBinding(namespaceName);
+
+        RoleBinding existingBinding = resourceCache.get(cluster.getName(), RoleBinding.class, namespaceName, roleBindingName,
+                () -> kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).withName(roleBindingName).get());
+        createOrReplaceIfChanged(roleBinding, existingBinding,
+                () -> kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).withName(roleBindingName).get(),
+                () -> kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).create(roleBinding),
+                () -> kubernetesClient.rbac().roleBindings().inNamespace(namespaceName).createOrReplace(roleBinding));
 
         log.info("RoleBinding Finished OK...");
     }
@@ -178,124 +156,181 @@ public class ProvisioningUtils {
     This method is responsible for creating a Kubernetes Secret within the specified namespace.
      Secrets are used to securely store sensitive information,
      */
-    public void createSecrets(String namespaceName) {
+    public void createSecrets(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        Secret secret = manifestFactory.secret(namespaceName);
 
+        // Check if the Secret already exists, answered by the informer cache when it is synced
+        boolean secretExists;
         try {
-            // Encode the secret data to base64
-            String encodedSecretValue = Base64.getEncoder().encodeToString(ocpResources.getSecretDataValue().getBytes());
-
-            Secret secret = new SecretBuilder()
-                    .withNewMetadata()
-                    .withName(ocpResources.getSecretName())
-                    .withNamespace(namespaceName)
-                    .endMetadata()
-                    .withType("Opaque") // Change this to the appropriate type if needed
-                    .addToData(ocpResources.getSecretDataKey(), encodedSecretValue)
-                    .build();
-
-            // Check if the Secret already exists by trying to get it
-            Secret existingSecret = kubernetesClient.secrets().inNamespace(namespaceName).withName(ocpResources.getSecretName()).get();
-            if (existingSecret != null) {
-                log.info("Secret already exists");
-            } else {
-                // Secret does not exist, create it
-                kubernetesClient.secrets().inNamespace(namespaceName).create(secret);
-                log.info("Secret created successfully.");
+            secretExists = resourceCache.exists(cluster.getName(), Secret.class, namespaceName, ocpResources.getSecretName(),
+                    () -> kubernetesClient.secrets().inNamespace(namespaceName).withName(ocpResources.getSecretName()).get());
+        } catch (RuntimeException e) {
+            // Rethrown so the step fails like every other one; createIfAbsent counts its own failures
+            countResource("Secret", "failed");
+            log.error("Error reading Secret: " + e.getMessage());
+            throw e;
+        }
+        if (secretExists) {
+            log.info("Secret already exists");
+            countResource("Secret", "skipped");
+        } else {
+            // Secret does not exist, create it
+            createIfAbsent(() -> kubernetesClient.secrets().inNamespace(namespaceName).create(secret), "Secret");
+        }
+
+        log.info("Secret created or replaced successfully...");
+    }
+
+    /*
+    This method is responsible for creating the Kubernetes NetworkPolicies of the environment within the specified namespace.
+     Network policies are used to control and define communication between pods
+     */
+    public void createNetworkPolicies(String namespaceName, String environment) {
+
+        KubernetesCluster cluster = kubernetesClientPool.forEnvironment(environment);
+        KubernetesClient kubernetesClient = cluster.getClient();
+        for (NetworkPolicy networkPolicy : manifestFactory.networkPolicies(namespaceName, environment)) {
+            String policyName = networkPolicy.getMetadata().getName();
+            Resource<NetworkPolicy> networkPolicyResource = kubernetesClient.network().networkPolicies().inNamespace(namespaceName)
+                    .withName(policyName);
+
+            NetworkPolicy existingNetworkPolicy = resourceCache.get(cluster.getName(), NetworkPolicy.class, namespaceName, policyName,
+                    networkPolicyResource::get);
+            createOrReplaceIfChanged(networkPolicy, existingNetworkPolicy, networkPolicyResource::get,
+                    () -> kubernetesClient.network().networkPolicies().inNamespace(namespaceName).create(networkPolicy),
+                    () -> networkPolicyResource.createOrReplace(networkPolicy));
+        }
+    }
+
+    public boolean isHelmEnabled() {
+        return helmChartRenderer.isEnabled();
+    }
+
+    /*
+     Deploys the configured Helm chart into the namespace. The chart is rendered once per chart version and values
+     (see HelmChartRenderer) and the objects are applied tier by tier in install order, the objects of a tier in parallel.
+     Like every other step, objects whose spec hash did not change are not written again.
+     */
+    public void executeHelmChart(String namespaceName, String environment) {
+
+        KubernetesClient kubernetesClient = kubernetesClientPool.forEnvironment(environment).getClient();
+        for (List<HasMetadata> tier : helmChartRenderer.manifests(namespaceName, environment, manifestFactory.applicationLabels())) {
+            List<CompletableFuture<Void>> applies = new ArrayList<>(tier.size());
+            for (HasMetadata object : tier) {
+                applies.add(CompletableFuture.runAsync(() -> applyChartObject(kubernetesClient, object), helmApplyTaskExecutor));
             }
+            try {
+                CompletableFuture.allOf(applies.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        log.info("Helm chart deployed in namespace {}", namespaceName);
+    }
 
-            log.info("Secret created or replaced successfully...");
-        } catch (Exception e) {
-            log.error("Error creating or replacing Secret: " + e.getMessage());
-            log.error("StackTrace: " + Arrays.toString(e.getStackTrace()));
+    private void applyChartObject(KubernetesClient kubernetesClient, HasMetadata object) {
 
+        HasMetadata live = kubernetesClient.resource(object).fromServer().get();
+        createOrReplaceIfChanged(object, live, () -> kubernetesClient.resource(object).fromServer().get(),
+                () -> kubernetesClient.resource(object).createOrReplace(),
+                () -> kubernetesClient.resource(object).createOrReplace());
+    }
+
+    /*
+     Publishes the outcome of a run to the results topic. Resource versions come from the informer cache only,
+     objects it does not know yet are left out; nothing here calls the API server or waits for Kafka.
+     */
+    public void reportResults(NewApplicationEvent event, ProvisioningReport report) {
+
+        String namespaceName = event.namespaceName();
+        String cluster = kubernetesClientPool.forEnvironment(event.getEnvironment()).getName();
+        Map<String, String> resourceVersions = new LinkedHashMap<>();
+        for (HasMetadata desired : manifestFactory.desiredState(namespaceName, event.getEnvironment())) {
+            HasMetadata live = resourceCache.peek(cluster, desired.getClass(), desired.getMetadata().getNamespace(), desired.getMetadata().getName());
+            if (live != null) {
+                resourceVersions.put(desired.getKind() + "/" + desired.getMetadata().getName(), live.getMetadata().getResourceVersion());
+            }
         }
+        resultPublisher.publish(new ProvisioningResult(namespaceName, event.getApplicationName(), event.getEnvironment(),
+                report.isSuccessful(), report.getDurationMillis(), System.currentTimeMillis(), report.getSteps(), resourceVersions));
     }
 
     /*
-    This method is responsible for creating a Kubernetes NetworkPolicy within the specified namespace.
-     Network policies are used to control and define communication between pods
+     Writes the desired object only when it differs from the live one. The desired manifest is stamped with
+     the hash of its content, and a live object carrying the same hash is left untouched, so replaying
+     events against an already provisioned namespace costs reads only.
+     Objects created before they carried the application label are invisible to the cache, so a create
+     for them answers 409 Conflict; the live object is then read from the API server and replaced
+     unless it already carries the hash, which labels and stamps it for the next run.
      */
-    public void createNetworkPolicies(String namespaceName) {
-
-        Resource<NetworkPolicy> networkPolicyResource = kubernetesClient.network().networkPolicies().inNamespace(namespaceName)
-                .withName(ocpResources.getNetworkPolicy());
-
-        NetworkPolicy networkPolicy = new NetworkPolicyBuilder()
-                .withNewMetadata()
-                .withName("my-network-policy") // Replace with your desired name
-                .withNamespace(namespaceName)
-                .endMetadata()
-                .withNewSpec()
-                .addNewIngress()
-                .addNewFrom()
-                .withNewPodSelector()
-                .addToMatchLabels("network-key", "network-value") // Replace with your label selector
-                .endPodSelector()
-                .endFrom()
-                .addNewPort()
-                .withNewPort(80) // Replace with your desired port
-                .endPort()
-                .endIngress()
-                .endSpec()
-                .build();
-
-        if (networkPolicyResource != null) {
-            // NetworkPolicy already exists
-            log.info("NetworkPolicy already exists.");
-
-            kubernetesClient.network().networkPolicies().inNamespace(namespaceName)
-                    .withName("network-policy").createOrReplace(networkPolicy);
+    private void createOrReplaceIfChanged(HasMetadata desired, HasMetadata live, Supplier<? extends HasMetadata> read,
+                                          Runnable create, Runnable createOrReplace) {
+
+        String kind = desired.getKind();
+        String hash = ManifestHasher.stamp(desired);
+        if (live == null) {
+            if (create(create, kind)) {
+                return;
+            }
+            try {
+                live = read.get();
+            } catch (RuntimeException e) {
+                countResource(kind, "failed");
+                throw e;
+            }
+        }
+        if (ManifestHasher.matches(live, hash)) {
+            log.info("{} unchanged, skipping write.", kind);
+            countResource(kind, "skipped");
         } else {
-            // NetworkPolicy does not exist, create it
-
-            kubernetesClient.network().networkPolicies().inNamespace(namespaceName)
-                    .create(networkPolicy);
-            log.info("NetworkPolicy created successfully.");
+            try {
+                createOrReplace.run();
+            } catch (RuntimeException e) {
+                countResource(kind, "failed");
+                throw e;
+            }
+            log.info("{} replaced successfully.", kind);
+            countResource(kind, "replaced");
         }
+    }
 
+    /*
+     For the create-only Secret a 409 Conflict just means there is nothing left to do.
+     */
+    private void createIfAbsent(Runnable create, String kind) {
+        if (!create(create, kind)) {
+            log.info("{} already exists", kind);
+            countResource(kind, "skipped");
+        }
     }
 
-    public static void executeHelmChart(String namespaceName) {
-
-/*            String releaseName = "my-helm-release"; // Change this to your desired release name
-            String chartName = "stable/nginx-ingress"; // Change this to your Helm chart name
-
-            // Check if Helm release already exists
-            HelmRelease existingRelease = kubernetesClient.customResources(HelmRelease.class)
-                    .inNamespace(namespaceName)
-                    .withName(releaseName)
-                    .get();
-
-            if (existingRelease != null) {
-                // Helm release already exists, perform an upgrade
-                HelmReleaseSpec spec = existingRelease.getSpec();
-                spec.setChart(chartName);
-                existingRelease.setSpec(spec);
-                kubernetesClient.customResources(HelmRelease.class)
-                        .inNamespace(namespaceName)
-                        .withName(releaseName)
-                        .edit()
-                        .replace(existingRelease);
-                System.out.println("Helm chart upgrade successful...");
-            } else {
-                // Helm release does not exist, create it
-                HelmRelease newRelease = new HelmReleaseBuilder()
-                        .withNewMetadata()
-                        .withName(releaseName)
-                        .withNamespace(namespaceName)
-                        .endMetadata()
-                        .withNewSpec()
-                        .withChart(chartName)
-                        .endSpec()
-                        .build();
-                kubernetesClient.customResources(HelmRelease.class)
-                        .inNamespace(namespaceName)
-                        .createOrReplace(newRelease);
-                System.out.println("Helm chart installation successful...");
-            }*/
+    /*
+     False when the object already exists; every other failure is counted and rethrown.
+     */
+    private boolean create(Runnable create, String kind) {
+        try {
+            create.run();
+            log.info("{} created successfully.", kind);
+            countResource(kind, "created");
+            return true;
+        } catch (KubernetesClientException e) {
+            if (e.getCode() != 409) {
+                countResource(kind, "failed");
+                throw e;
+            }
+            return false;
+        }
     }
 
-    public void reportResults(String namespaceName) {
-        log.info("Report results (logging, Kafka topic, API endpoint, etc....");
+    private void countResource(String kind, String result) {
+        Counter.builder("provisioning.resources")
+                .description("Managed resources by outcome of the provisioning write")
+                .tag("kind", kind)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
     }
 }
@@ -0,0 +1,166 @@
+package com.imricki.spring.ocp.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.BulkProvisioningService;
+import com.imricki.spring.ocp.service.OpenshiftProvisioner;
+import com.imricki.spring.ocp.service.ProvisioningJobService;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import com.imricki.spring.ocp.service.ProvisioningStep;
+import com.imricki.spring.ocp.service.StepListener;
+import com.imricki.spring.ocp.service.StepResult;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ Jobs run on a synchronous executor, so a job has finished by the time the POST returns.
+ Bulk runs use a pool larger than the requested parallelism, so only the controller and the service bound it.
+ */
+class OpenshiftControllerTest {
+
+    private static final String EVENT = "{\"applicationName\":\"orders\",\"environment\":\"PRE\"}";
+
+    private final OpenshiftProvisioner openshiftProvisioner = mock(OpenshiftProvisioner.class);
+    private final ThreadPoolTaskExecutor bulkProvisioningTaskExecutor = new ThreadPoolTaskExecutor();
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        bulkProvisioningTaskExecutor.setCorePoolSize(8);
+        bulkProvisioningTaskExecutor.initialize();
+        OpenshiftController controller = new OpenshiftController();
+        ReflectionTestUtils.setField(controller, "provisioningJobService",
+                new ProvisioningJobService(openshiftProvisioner, new SyncTaskExecutor(), 60_000));
+        ReflectionTestUtils.setField(controller, "bulkProvisioningService",
+                new BulkProvisioningService(openshiftProvisioner, bulkProvisioningTaskExecutor, 16));
+        ReflectionTestUtils.setField(controller, "objectMapper", new ObjectMapper());
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        bulkProvisioningTaskExecutor.shutdown();
+    }
+
+    @Test
+    void acceptsAJobAndReportsItsProgress() throws Exception {
+
+        when(openshiftProvisioner.provisionResources(any(NewApplicationEvent.class), any(StepListener.class)))
+                .thenReturn(report(new StepResult(ProvisioningStep.NAMESPACE, StepResult.Status.SUCCEEDED, 0, 5, null)));
+
+        String location = submit();
+
+        mockMvc.perform(get(location))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.namespaceName").value("pre-orders"))
+                .andExpect(jsonPath("$.status").value("SUCCEEDED"))
+                .andExpect(jsonPath("$.error").doesNotExist());
+    }
+
+    @Test
+    void reportsTheStepThatFailedTheJob() throws Exception {
+
+        when(openshiftProvisioner.provisionResources(any(NewApplicationEvent.class), any(StepListener.class)))
+                .thenReturn(report(new StepResult(ProvisioningStep.NAMESPACE, StepResult.Status.SUCCEEDED, 0, 5, null),
+                        new StepResult(ProvisioningStep.SECRETS, StepResult.Status.FAILED, 0, 5, "Forbidden"),
+                        StepResult.skipped(ProvisioningStep.HELM_CHART)));
+
+        mockMvc.perform(get(submit()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("FAILED"))
+                .andExpect(jsonPath("$.error").value("SECRETS: Forbidden"));
+    }
+
+    @Test
+    void reportsTheExceptionThatEndedTheJob() throws Exception {
+
+        when(openshiftProvisioner.provisionResources(any(NewApplicationEvent.class), any(StepListener.class)))
+                .thenThrow(new IllegalStateException("No cluster configured for PRE"));
+
+        mockMvc.perform(get(submit()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("FAILED"))
+                .andExpect(jsonPath("$.error").value("No cluster configured for PRE"));
+    }
+
+    @Test
+    void answersNotFoundForAnUnknownJob() throws Exception {
+        mockMvc.perform(get("/ocp/jobs/unknown")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void streamsOneLinePerApplicationWithTheRequestedParallelism() throws Exception {
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger mostInFlight = new AtomicInteger();
+        when(openshiftProvisioner.provisionResources(any(NewApplicationEvent.class))).thenAnswer(invocation -> {
+            mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            NewApplicationEvent event = invocation.getArgument(0);
+            return new ProvisioningReport(event.namespaceName(), List.of(), 50);
+        });
+        String events = IntStream.range(0, 12)
+                .mapToObj(i -> "{\"applicationName\":\"app" + i + "\",\"environment\":\"INT\"}")
+                .collect(Collectors.joining("\n"));
+
+        MvcResult started = mockMvc.perform(post("/ocp/provisionresources/bulk").param("parallelism", "3")
+                        .contentType("application/x-ndjson").content(events))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        started.getAsyncResult(10_000);
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        List<String> lines = Arrays.asList(result.getResponse().getContentAsString().split("\n"));
+        assertThat(lines).hasSize(12);
+        assertThat(lines).extracting(line -> (String) JsonPath.read(line, "$.namespaceName"))
+                .containsExactlyInAnyOrderElementsOf(IntStream.range(0, 12).mapToObj(i -> "int-app" + i).toList());
+        assertThat(mostInFlight.get()).isEqualTo(3);
+    }
+
+    private String submit() throws Exception {
+        MvcResult result = mockMvc.perform(post("/ocp/provisionresources").contentType(MediaType.APPLICATION_JSON).content(EVENT))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", startsWith("/ocp/jobs/")))
+                .andExpect(jsonPath("$.id").isNotEmpty())
+                .andReturn();
+        String id = JsonPath.read(result.getResponse().getContentAsString(), "$.id");
+        String location = result.getResponse().getHeader("Location");
+        assertThat(location).isEqualTo("/ocp/jobs/" + id);
+        return location;
+    }
+
+    private static ProvisioningReport report(StepResult... steps) {
+        return new ProvisioningReport("pre-orders", List.of(steps), 10);
+    }
+}
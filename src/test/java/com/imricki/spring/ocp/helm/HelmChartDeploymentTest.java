@@ -0,0 +1,135 @@
+package com.imricki.spring.ocp.helm;
+
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.reporting.ResultPublisher;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.OCPResources;
+import com.imricki.spring.ocp.utils.ProvisioningUtils;
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ Renders a chart with a stand-in helm binary and applies it to a CRUD mock API server.
+ */
+class HelmChartDeploymentTest {
+
+    private static final String HELM = """
+            #!/bin/sh
+            echo render >> "$(dirname "$0")/renders"
+            while [ $# -gt 0 ]; do
+              if [ "$1" = "--namespace" ]; then namespace="$2"; fi
+              shift
+            done
+            cat <<YAML
+            ---
+            apiVersion: v1
+            kind: Service
+            metadata:
+              name: app
+            spec:
+              ports:
+              - port: 80
+            ---
+            apiVersion: rbac.authorization.k8s.io/v1
+            kind: ClusterRole
+            metadata:
+              name: app-reader
+            rules: []
+            ---
+            apiVersion: v1
+            kind: ConfigMap
+            metadata:
+              name: app-config
+            data:
+              releaseNamespace: $namespace
+            YAML
+            """;
+
+    @TempDir
+    Path directory;
+
+    private final KubernetesServer server = new KubernetesServer(false, true);
+    private KubernetesClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server.before();
+        client = server.getClient();
+        Files.writeString(directory.resolve("Chart.yaml"), "apiVersion: v2\nname: app\nversion: 1.2.3\n");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.after();
+    }
+
+    @Test
+    void appliesOneRenderingToEveryNamespaceWithItsOwnReleaseNamespace() throws IOException {
+
+        ProvisioningUtils provisioningUtils = provisioningUtils(renderer(helm(HELM), 30000));
+
+        provisioningUtils.executeHelmChart("pre-orders", "PRE");
+        provisioningUtils.executeHelmChart("pre-billing", "PRE");
+
+        for (String namespace : new String[]{"pre-orders", "pre-billing"}) {
+            ConfigMap config = client.configMaps().inNamespace(namespace).withName("app-config").get();
+            assertThat(config.getData()).containsEntry("releaseNamespace", namespace);
+            assertThat(config.getMetadata().getLabels()).containsEntry("app.kubernetes.io/managed-by", "ocp-provisioner");
+            assertThat(client.services().inNamespace(namespace).withName("app").get()).isNotNull();
+        }
+        assertThat(client.rbac().clusterRoles().list().getItems()).isEmpty();
+        assertThat(Files.readAllLines(directory.resolve("renders"))).hasSize(1);
+    }
+
+    @Test
+    void givesUpOnAHelmThatNeverFinishes() throws IOException {
+
+        HelmChartRenderer renderer = renderer(helm("#!/bin/sh\necho '---'\nexec sleep 30\n"), 500);
+
+        long start = System.currentTimeMillis();
+        assertThatThrownBy(() -> renderer.manifests("pre-orders", "PRE", Map.of()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("timed out");
+        assertThat(System.currentTimeMillis() - start).isLessThan(10000);
+    }
+
+    private Path helm(String script) throws IOException {
+        Path helm = directory.resolve("helm");
+        Files.writeString(helm, script);
+        assertThat(helm.toFile().setExecutable(true)).isTrue();
+        return helm;
+    }
+
+    private HelmChartRenderer renderer(Path helm, long renderTimeoutMillis) {
+        return new HelmChartRenderer(true, helm.toString(), directory.toString(), "app", "", "", renderTimeoutMillis);
+    }
+
+    private ProvisioningUtils provisioningUtils(HelmChartRenderer renderer) {
+
+        KubernetesClientPool kubernetesClientPool = mock(KubernetesClientPool.class);
+        when(kubernetesClientPool.forEnvironment("PRE")).thenReturn(new KubernetesCluster("default", client, null));
+        ManifestFactory manifestFactory = mock(ManifestFactory.class);
+        when(manifestFactory.applicationLabels()).thenReturn(Map.of("app.kubernetes.io/managed-by", "ocp-provisioner"));
+        return new ProvisioningUtils(kubernetesClientPool, mock(OCPResources.class), manifestFactory, mock(ResourceCache.class),
+                new SimpleMeterRegistry(), mock(ResultPublisher.class), renderer, new SyncTaskExecutor());
+    }
+}
@@ -0,0 +1,88 @@
+package com.imricki.spring.ocp.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.ProvisioningStep;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProvisioningJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resumesARunCutShortByTheProcessGoingAway() {
+
+        NewApplicationEvent event = new NewApplicationEvent("orders", "PRE");
+        ProvisioningJournal journal = open(1 << 20);
+        journal.begin(event);
+        journal.stepCompleted(event.namespaceName(), ProvisioningStep.NAMESPACE);
+        journal.stepCompleted(event.namespaceName(), ProvisioningStep.SECRETS);
+        journal.close();
+
+        ProvisioningJournal reopened = open(1 << 20);
+        assertThat(reopened.unfinished()).containsExactly(event);
+        assertThat(reopened.begin(event)).containsExactlyInAnyOrder(ProvisioningStep.NAMESPACE, ProvisioningStep.SECRETS);
+        reopened.close();
+    }
+
+    @Test
+    void startsOverOnceARunEnded() {
+
+        NewApplicationEvent event = new NewApplicationEvent("orders", "PRE");
+        ProvisioningJournal journal = open(1 << 20);
+        journal.begin(event);
+        journal.stepCompleted(event.namespaceName(), ProvisioningStep.NAMESPACE);
+        // A failed run ends as well, its retry must run every step again
+        journal.end(event.namespaceName());
+        journal.close();
+
+        ProvisioningJournal reopened = open(1 << 20);
+        assertThat(reopened.unfinished()).isEmpty();
+        assertThat(reopened.begin(event)).isEmpty();
+        reopened.close();
+    }
+
+    @Test
+    void keepsFlushingWhileCompactionsReplaceTheSegment() throws Exception {
+
+        // Every few records roll the segment, closing the channel a concurrent flush may be forcing
+        ProvisioningJournal journal = open(512);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread flusher = new Thread(() -> {
+            while (running.get()) {
+                journal.flush();
+            }
+        });
+        flusher.start();
+        try {
+            for (int i = 0; i < 600; i++) {
+                NewApplicationEvent event = new NewApplicationEvent("app-" + i, "INT");
+                journal.begin(event);
+                journal.stepCompleted(event.namespaceName(), ProvisioningStep.NAMESPACE);
+                if (i % 10 != 0) {
+                    journal.end(event.namespaceName());
+                }
+            }
+        } finally {
+            running.set(false);
+            flusher.join();
+        }
+        journal.close();
+
+        ProvisioningJournal reopened = open(512);
+        assertThat(reopened.unfinished()).hasSize(60)
+                .allSatisfy(event -> assertThat(Integer.parseInt(event.getApplicationName().substring(4)) % 10).isZero());
+        reopened.close();
+    }
+
+    private ProvisioningJournal open(long segmentMaxBytes) {
+        return new ProvisioningJournal(new ObjectMapper(), true, directory.toString(), segmentMaxBytes);
+    }
+}
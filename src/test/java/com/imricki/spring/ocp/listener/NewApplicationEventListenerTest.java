@@ -0,0 +1,183 @@
+package com.imricki.spring.ocp.listener;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.service.OpenshiftProvisioner;
+import com.imricki.spring.ocp.service.ProvisioningReport;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/*
+ Events go through the embedded broker into the real listener container and error handler;
+ only the provisioning itself is mocked.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "openshift.api.url=http://127.0.0.1:1",
+        "provisioning.kafka.coalescing.enabled=false",
+        "provisioning.kafka.results.enabled=false",
+        "provisioning.kafka.retry-interval-millis=50",
+        "provisioning.kafka.max-retries=2",
+        "provisioning.journal.enabled=false",
+        "provisioning.reconcile.enabled=false",
+        "provisioning.cache.enabled=false"})
+@EmbeddedKafka(partitions = 6, topics = {"provision-commands", "provision-commands.DLT"})
+@DirtiesContext
+class NewApplicationEventListenerTest {
+
+    private static final String TOPIC = "provision-commands";
+
+    @MockBean
+    private OpenshiftProvisioner openshiftProvisioner;
+
+    @Autowired
+    private KafkaTemplate<Object, Object> kafkaTemplate;
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    @Test
+    void provisionsEveryEventAndNeverRunsTheSameNamespaceConcurrently() throws Exception {
+
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        List<String> overlaps = new CopyOnWriteArrayList<>();
+        List<String> provisioned = new CopyOnWriteArrayList<>();
+        when(openshiftProvisioner.provisionResources(argThat(event -> event != null && event.getApplicationName().startsWith("order-"))))
+                .thenAnswer(invocation -> {
+                    NewApplicationEvent event = invocation.getArgument(0);
+                    AtomicInteger runs = running.computeIfAbsent(event.namespaceName(), key -> new AtomicInteger());
+                    if (runs.incrementAndGet() > 1) {
+                        overlaps.add(event.namespaceName());
+                    }
+                    // Recorded before the work, Mockito counts the call as soon as it starts
+                    provisioned.add(event.namespaceName());
+                    Thread.sleep(20);
+                    runs.decrementAndGet();
+                    return new ProvisioningReport(event.namespaceName(), List.of(), 20);
+                });
+
+        List<String> sent = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            for (int application = 0; application < 8; application++) {
+                NewApplicationEvent event = new NewApplicationEvent("order-" + application, "PRE");
+                kafkaTemplate.send(TOPIC, event.namespaceName(), event);
+                sent.add(event.namespaceName());
+            }
+        }
+        kafkaTemplate.flush();
+
+        verify(openshiftProvisioner, timeout(30000).times(sent.size()))
+                .provisionResources(argThat(event -> event != null && event.getApplicationName().startsWith("order-")));
+        assertThat(provisioned).containsExactlyInAnyOrderElementsOf(sent);
+        assertThat(overlaps).isEmpty();
+    }
+
+    @Test
+    void sendsARecordThatKeepsFailingToTheDeadLetterTopic() {
+
+        NewApplicationEvent poison = new NewApplicationEvent("poison", "INT");
+        NewApplicationEvent healthy = new NewApplicationEvent("healthy", "INT");
+        when(openshiftProvisioner.provisionResources(argThat(event -> event != null && "poison".equals(event.getApplicationName()))))
+                .thenThrow(new IllegalStateException("API server unavailable"));
+        when(openshiftProvisioner.provisionResources(argThat(event -> event != null && "healthy".equals(event.getApplicationName()))))
+                .thenAnswer(invocation -> new ProvisioningReport(healthy.namespaceName(), List.of(), 1));
+
+        kafkaTemplate.send(TOPIC, poison.namespaceName(), poison);
+        kafkaTemplate.send(TOPIC, healthy.namespaceName(), healthy);
+        kafkaTemplate.flush();
+
+        ConsumerRecord<String, String> deadLetter = deadLetter(poison.namespaceName());
+
+        assertThat(deadLetter.value()).contains("\"applicationName\":\"poison\"");
+        assertThat(new String(deadLetter.headers().lastHeader("kafka_dlt-exception-message").value()))
+                .contains(poison.namespaceName());
+        // The first attempt and both retries, then the partition moves on
+        verify(openshiftProvisioner, timeout(10000).times(3))
+                .provisionResources(argThat(event -> event != null && "poison".equals(event.getApplicationName())));
+        verify(openshiftProvisioner, timeout(10000).atLeastOnce())
+                .provisionResources(argThat(event -> event != null && "healthy".equals(event.getApplicationName())));
+    }
+
+    @Test
+    void sendsAnUndeserializableRecordToTheDeadLetterTopicWithoutRetrying() {
+
+        NewApplicationEvent healthy = new NewApplicationEvent("after-malformed", "INT");
+        when(openshiftProvisioner.provisionResources(argThat(event -> event != null && "after-malformed".equals(event.getApplicationName()))))
+                .thenAnswer(invocation -> new ProvisioningReport(healthy.namespaceName(), List.of(), 1));
+        String malformed = "{\"applicationName\": not json";
+
+        try (Producer<String, byte[]> producer = new DefaultKafkaProducerFactory<>(KafkaTestUtils.producerProps(broker),
+                new StringSerializer(), new ByteArraySerializer()).createProducer()) {
+            producer.send(new ProducerRecord<>(TOPIC, 0, "int-malformed", malformed.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        ConsumerRecord<String, String> deadLetter = deadLetter("int-malformed");
+
+        // The original bytes, not a re-serialized value
+        assertThat(deadLetter.value()).isEqualTo(malformed);
+        assertThat(new String(deadLetter.headers().lastHeader("kafka_dlt-exception-fqcn").value()))
+                .isEqualTo("org.springframework.kafka.support.serializer.DeserializationException");
+
+        // Sent only now, so it cannot be part of the batch redelivered after the malformed record
+        kafkaTemplate.send(TOPIC, 0, healthy.namespaceName(), healthy);
+        kafkaTemplate.flush();
+        verify(openshiftProvisioner, timeout(10000).atLeastOnce())
+                .provisionResources(argThat(event -> event != null && "after-malformed".equals(event.getApplicationName())));
+        verify(openshiftProvisioner, never()).provisionResources(isNull());
+        verify(openshiftProvisioner, never()).provisionResources(isNull(), any());
+    }
+
+    /*
+     The dead-letter topic is shared by the tests of this class, so records are picked by key.
+     */
+    private ConsumerRecord<String, String> deadLetter(String key) {
+
+        Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("dead-letter-" + key, "false", broker);
+        try (Consumer<String, String> consumer = new DefaultKafkaConsumerFactory<>(consumerProps,
+                new StringDeserializer(), new StringDeserializer()).createConsumer()) {
+            broker.consumeFromAnEmbeddedTopic(consumer, TOPIC + ".DLT");
+            long deadline = System.currentTimeMillis() + 30000;
+            while (System.currentTimeMillis() < deadline) {
+                for (ConsumerRecord<String, String> record : KafkaTestUtils.getRecords(consumer, Duration.ofSeconds(1))) {
+                    if (key.equals(record.key())) {
+                        return record;
+                    }
+                }
+            }
+        }
+        throw new AssertionError("No dead letter with key " + key);
+    }
+}
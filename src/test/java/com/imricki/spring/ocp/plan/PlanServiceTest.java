@@ -0,0 +1,105 @@
+package com.imricki.spring.ocp.plan;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import com.imricki.spring.ocp.helm.HelmChartRenderer;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PlanServiceTest {
+
+    private static final String PASSWORD = "s3cr3t-password";
+    private static final String ENCODED_PASSWORD = Base64.getEncoder().encodeToString(PASSWORD.getBytes());
+
+    private final ManifestFactory manifestFactory = mock(ManifestFactory.class);
+    private final KubernetesClientPool kubernetesClientPool = mock(KubernetesClientPool.class);
+    private final PlanService planService = new PlanService(manifestFactory, mock(HelmChartRenderer.class),
+            kubernetesClientPool, mock(ResourceCache.class));
+
+    @Test
+    void showsTheKeysOfASecretButNotItsValues() {
+
+        NewApplicationEvent event = new NewApplicationEvent("billing", "PRE");
+        Secret secret = secret(event.namespaceName());
+        when(kubernetesClientPool.forEnvironment("PRE")).thenReturn(new KubernetesCluster("pre", null, null));
+        when(manifestFactory.desiredState(event.namespaceName(), "PRE")).thenReturn(List.of(secret));
+
+        List<PlanChange> changes = new ArrayList<>();
+        planService.plan(List.of(event).iterator(), snapshot(null), false, changes::add);
+
+        assertThat(changes).singleElement().satisfies(change -> {
+            assertThat(change.getAction()).isEqualTo(PlanChange.Action.CREATE);
+            Secret shown = (Secret) change.getManifest();
+            assertThat(shown.getData()).containsOnlyKeys("password");
+            assertThat(shown.getData().get("password")).matches("sha256:[0-9a-f]{12}");
+            assertThat(shown.getStringData()).containsOnlyKeys("username");
+            assertThat(shown.getStringData().get("username")).matches("sha256:[0-9a-f]{12}");
+            assertThat(Serialization.asJson(change)).doesNotContain(ENCODED_PASSWORD, PASSWORD, "admin");
+        });
+        // Only the plan output is redacted, the desired object is left as a run would write it
+        assertThat(secret.getData()).containsEntry("password", ENCODED_PASSWORD);
+    }
+
+    @Test
+    void redactsTheSecretOfAnUnknownChangeToo() {
+
+        NewApplicationEvent event = new NewApplicationEvent("billing", "PRO");
+        when(kubernetesClientPool.forEnvironment("PRO")).thenReturn(new KubernetesCluster("pro", null, null));
+        when(manifestFactory.desiredState(event.namespaceName(), "PRO")).thenReturn(List.of(secret(event.namespaceName())));
+
+        List<PlanChange> changes = new ArrayList<>();
+        planService.plan(List.of(event).iterator(), new StateSnapshot() {
+            @Override
+            public boolean covers(String cluster, Class<? extends HasMetadata> type) {
+                return false;
+            }
+
+            @Override
+            public ObjectNode get(String cluster, HasMetadata desired) {
+                return null;
+            }
+        }, false, changes::add);
+
+        assertThat(changes).singleElement().satisfies(change -> {
+            assertThat(change.getAction()).isEqualTo(PlanChange.Action.UNKNOWN);
+            assertThat(Serialization.asJson(change)).contains("\"password\"").doesNotContain(ENCODED_PASSWORD);
+        });
+    }
+
+    private static Secret secret(String namespaceName) {
+        return new SecretBuilder()
+                .withNewMetadata().withName("app-credentials").withNamespace(namespaceName).endMetadata()
+                .addToData("password", ENCODED_PASSWORD)
+                .addToStringData("username", "admin")
+                .build();
+    }
+
+    private static StateSnapshot snapshot(ObjectNode live) {
+        return new StateSnapshot() {
+            @Override
+            public boolean covers(String cluster, Class<? extends HasMetadata> type) {
+                return true;
+            }
+
+            @Override
+            public ObjectNode get(String cluster, HasMetadata desired) {
+                return live;
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ Synchronous calls, as the fabric8 client makes them, from more threads than there are request slots.
+ */
+class ConcurrencyLimitingInterceptorTest {
+
+    private final AtomicInteger onTheWire = new AtomicInteger();
+    private final AtomicInteger mostOnTheWire = new AtomicInteger();
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                mostOnTheWire.accumulateAndGet(onTheWire.incrementAndGet(), Math::max);
+                Thread.sleep(100);
+                onTheWire.decrementAndGet();
+                return new MockResponse().setBody("{}");
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void keepsSynchronousCallsWithinTheLimit() throws Exception {
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new ConcurrencyLimitingInterceptor(3))
+                .build();
+        ExecutorService callers = Executors.newFixedThreadPool(12);
+        try {
+            List<Future<Integer>> calls = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                calls.add(callers.submit(() -> {
+                    try (Response response = client.newCall(new Request.Builder().url(server.url("/api/v1/namespaces")).build()).execute()) {
+                        return response.code();
+                    }
+                }));
+            }
+            for (Future<Integer> call : calls) {
+                assertThat(call.get()).isEqualTo(200);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertThat(mostOnTheWire.get()).isEqualTo(3);
+    }
+}
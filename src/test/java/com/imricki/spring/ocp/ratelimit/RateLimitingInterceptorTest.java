@@ -0,0 +1,154 @@
+package com.imricki.spring.ocp.ratelimit;
+
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.Status;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+ The interceptor runs in the OkHttp client of a fabric8 KubernetesClient against a mock API server
+ that answers with injected 429s and 5xx. Transport failures are injected below the interceptor.
+ */
+class RateLimitingInterceptorTest {
+
+    private static final String NAMESPACES = "/api/v1/namespaces";
+    private static final String NAMESPACE = NAMESPACES + "/int-orders";
+
+    private final KubernetesServer server = new KubernetesServer(false, false);
+    private final AtomicInteger transportFailures = new AtomicInteger();
+    private AdaptiveRateLimiter rateLimiter;
+    private KubernetesClient client;
+
+    @BeforeEach
+    void setUp() {
+
+        server.before();
+
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setPermitsPerSecond(1000);
+        properties.setBurst(1000);
+        properties.setInitialConcurrency(8);
+        properties.setMinConcurrency(1);
+        properties.setMaxConcurrency(16);
+        properties.setDecreaseFactor(0.5);
+        properties.setMaxRetries(3);
+        properties.setBaseBackoffMillis(10);
+        properties.setMaxBackoffMillis(50);
+        properties.setMaxRetryAfterMillis(200);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new AdaptiveRateLimiter("test", properties, meterRegistry);
+        Config config = new ConfigBuilder(server.getClient().getConfiguration()).build();
+        client = new DefaultKubernetesClient(HttpClientUtils.createHttpClient(config, builder -> builder
+                .addInterceptor(new RateLimitingInterceptor("test", rateLimiter, properties, meterRegistry))
+                .addInterceptor(chain -> {
+                    if (transportFailures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                        throw new IOException("Connection reset");
+                    }
+                    return chain.proceed(chain.request());
+                })), config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.after();
+    }
+
+    @Test
+    void retriesThrottledGetUntilItSucceeds() {
+
+        server.expect().get().withPath(NAMESPACE).andReturn(429, status(429)).withHeader("Retry-After", "0").once();
+        server.expect().get().withPath(NAMESPACE).andReturn(429, status(429)).once();
+        server.expect().get().withPath(NAMESPACE).andReturn(200, namespace()).once();
+
+        assertThat(client.namespaces().withName("int-orders").get()).isNotNull();
+        assertThat(server.getMockServer().getRequestCount()).isEqualTo(3);
+        assertThat(rateLimiter.getThrottledResponses()).isEqualTo(2);
+        assertThat(rateLimiter.getConcurrencyLimit()).isLessThan(8);
+        assertThat(rateLimiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void retriesAThrottledPost() {
+
+        server.expect().post().withPath(NAMESPACES).andReturn(429, status(429)).withHeader("Retry-After", "0").once();
+        server.expect().post().withPath(NAMESPACES).andReturn(201, namespace()).once();
+
+        assertThat(client.namespaces().create(namespace())).isNotNull();
+        assertThat(server.getMockServer().getRequestCount()).isEqualTo(2);
+        assertThat(rateLimiter.getThrottledResponses()).isEqualTo(1);
+    }
+
+    @Test
+    void neverResendsAPostTheServerFailed() {
+
+        server.expect().post().withPath(NAMESPACES).andReturn(503, status(503)).once();
+        server.expect().post().withPath(NAMESPACES).andReturn(201, namespace()).once();
+
+        assertThatThrownBy(() -> client.namespaces().create(namespace()))
+                .isInstanceOfSatisfying(KubernetesClientException.class, e -> assertThat(e.getCode()).isEqualTo(503));
+        assertThat(server.getMockServer().getRequestCount()).isEqualTo(1);
+        assertThat(rateLimiter.getThrottledResponses()).isEqualTo(1);
+    }
+
+    @Test
+    void capsTheServerRetryAfter() {
+
+        server.expect().get().withPath(NAMESPACE).andReturn(429, status(429)).withHeader("Retry-After", "3600").once();
+        server.expect().get().withPath(NAMESPACE).andReturn(200, namespace()).once();
+
+        long start = System.nanoTime();
+        assertThat(client.namespaces().withName("int-orders").get()).isNotNull();
+        assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(5000);
+        assertThat(server.getMockServer().getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesAGetAfterATransportFailure() {
+
+        server.expect().get().withPath(NAMESPACE).andReturn(200, namespace()).once();
+        transportFailures.set(1);
+
+        assertThat(client.namespaces().withName("int-orders").get()).isNotNull();
+        assertThat(rateLimiter.getThrottledResponses()).isEqualTo(1);
+        assertThat(rateLimiter.getConcurrencyLimit()).isLessThan(8);
+        assertThat(rateLimiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void neverResendsAPostAfterATransportFailure() {
+
+        server.expect().post().withPath(NAMESPACES).andReturn(201, namespace()).once();
+        transportFailures.set(1);
+
+        assertThatThrownBy(() -> client.namespaces().create(namespace())).isInstanceOf(KubernetesClientException.class);
+        assertThat(server.getMockServer().getRequestCount()).isZero();
+        assertThat(rateLimiter.getInFlight()).isZero();
+    }
+
+    private static Namespace namespace() {
+        return new NamespaceBuilder().withNewMetadata().withName("int-orders").endMetadata().build();
+    }
+
+    private static Status status(int code) {
+        return new StatusBuilder().withCode(code).withStatus("Failure").build();
+    }
+}
@@ -0,0 +1,102 @@
+package com.imricki.spring.ocp.reconcile;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.IntOrString;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.ResourceQuotaBuilder;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicyBuilder;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicyPort;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicyPortBuilder;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DriftDetectorTest {
+
+    @Test
+    void acceptsQuantitiesTheServerNormalized() {
+
+        ResourceQuota desired = quota("1000m", "1024Mi");
+        ResourceQuota live = quota("1", "1Gi");
+        live.getMetadata().setResourceVersion("42");
+        live.setStatus(null);
+
+        assertThat(DriftDetector.drifted(desired, live)).isFalse();
+        assertThat(DriftDetector.differences(desired, tree(live))).isEmpty();
+    }
+
+    @Test
+    void findsAQuotaEditedByHand() {
+
+        ResourceQuota desired = quota("1000m", "1Gi");
+        ResourceQuota live = quota("4", "1Gi");
+
+        assertThat(DriftDetector.drifted(desired, live)).isTrue();
+        assertThat(DriftDetector.differences(desired, tree(live))).containsExactly("spec.hard.limits.cpu");
+    }
+
+    @Test
+    void ignoresFieldsOnlyTheServerSets() {
+
+        ResourceQuota desired = quota("500m", "512Mi");
+        ResourceQuota live = quota("500m", "512Mi");
+        live.getMetadata().getLabels().put("added-by", "someone");
+        live.getSpec().getHard().put("pods", new Quantity("10"));
+
+        assertThat(DriftDetector.drifted(desired, live)).isFalse();
+    }
+
+    @Test
+    void findsARemovedLabel() {
+
+        ResourceQuota desired = quota("500m", "512Mi");
+        ResourceQuota live = quota("500m", "512Mi");
+        live.getMetadata().getLabels().remove("app");
+
+        assertThat(DriftDetector.differences(desired, tree(live))).containsExactly("metadata.labels.app");
+    }
+
+    @Test
+    void comparesArraysElementByElement() {
+
+        NetworkPolicy desired = policy(port(80), port(443));
+
+        assertThat(DriftDetector.drifted(desired, policy(port(80), port(443)))).isFalse();
+        assertThat(DriftDetector.differences(desired, tree(policy(port(80), port(8443)))))
+                .containsExactly("spec.ingress[0].ports[1].port");
+        assertThat(DriftDetector.differences(desired, tree(policy(port(80)))))
+                .containsExactly("spec.ingress[0].ports");
+        assertThat(DriftDetector.drifted(desired, null)).isTrue();
+    }
+
+    private static ResourceQuota quota(String cpu, String memory) {
+        return new ResourceQuotaBuilder()
+                .withNewMetadata().withName("quota").withNamespace("pro-orders").addToLabels("app", "ocp-provisioner").endMetadata()
+                .withNewSpec()
+                .addToHard("limits.cpu", new Quantity(cpu))
+                .addToHard("limits.memory", new Quantity(memory))
+                .endSpec()
+                .build();
+    }
+
+    private static NetworkPolicy policy(NetworkPolicyPort... ports) {
+        return new NetworkPolicyBuilder()
+                .withNewMetadata().withName("policy").withNamespace("pro-orders").endMetadata()
+                .withNewSpec()
+                .addNewIngress().withPorts(ports).endIngress()
+                .endSpec()
+                .build();
+    }
+
+    private static NetworkPolicyPort port(int port) {
+        return new NetworkPolicyPortBuilder().withProtocol("TCP").withPort(new IntOrString(port)).build();
+    }
+
+    private static ObjectNode tree(HasMetadata live) {
+        return Serialization.jsonMapper().valueToTree(live);
+    }
+}
@@ -0,0 +1,80 @@
+package com.imricki.spring.ocp.reconcile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReconcileQueueTest {
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 400;
+
+    private final ReconcileQueue queue = new ReconcileQueue(BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+
+    @Test
+    void queuesAKeyOnceHoweverManyChangesArrive() throws InterruptedException {
+
+        queue.add("default/pre-orders");
+        queue.add("default/pre-orders");
+        queue.add("default/pre-billing");
+        queue.add("default/pre-orders");
+
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.poll(1, TimeUnit.SECONDS)).isEqualTo("default/pre-orders");
+        assertThat(queue.poll(1, TimeUnit.SECONDS)).isEqualTo("default/pre-billing");
+        assertThat(queue.poll(50, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void holdsBackAKeyChangedWhileInProgressUntilItIsDone() throws InterruptedException {
+
+        queue.add("default/pre-orders");
+        String key = queue.poll(1, TimeUnit.SECONDS);
+
+        // Another worker must not get it while the first one still works on it
+        queue.add(key);
+        queue.add(key);
+        assertThat(queue.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+        queue.done(key, false);
+        assertThat(queue.poll(1, TimeUnit.SECONDS)).isEqualTo(key);
+        queue.done(key, false);
+        assertThat(queue.poll(50, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void doublesTheBackoffOfAFailingKeyUpToTheMaximum() throws InterruptedException {
+
+        queue.add("default/pre-orders");
+        String key = queue.poll(1, TimeUnit.SECONDS);
+
+        for (long expected : new long[]{100, 200, 400, 400}) {
+            queue.done(key, true);
+            long start = System.nanoTime();
+            assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo(key);
+            long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertThat(waitedMillis).isGreaterThanOrEqualTo(expected - 10).isLessThan(expected + 1000);
+        }
+    }
+
+    @Test
+    void resetsTheBackoffOnceTheKeySucceeds() throws InterruptedException {
+
+        queue.add("default/pre-orders");
+        String key = queue.poll(1, TimeUnit.SECONDS);
+        for (int failure = 0; failure < 3; failure++) {
+            queue.done(key, true);
+            queue.poll(5, TimeUnit.SECONDS);
+        }
+        queue.done(key, false);
+
+        queue.add(key);
+        queue.poll(1, TimeUnit.SECONDS);
+        queue.done(key, true);
+        long start = System.nanoTime();
+        assertThat(queue.poll(5, TimeUnit.SECONDS)).isEqualTo(key);
+        assertThat((System.nanoTime() - start) / 1_000_000).isGreaterThanOrEqualTo(BASE_BACKOFF_MILLIS - 10).isLessThan(MAX_BACKOFF_MILLIS);
+    }
+}
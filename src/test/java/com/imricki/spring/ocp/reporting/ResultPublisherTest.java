@@ -0,0 +1,128 @@
+package com.imricki.spring.ocp.reporting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.imricki.spring.ocp.event.ProvisioningResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.KafkaException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResultPublisherTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicBoolean kafkaDown = new AtomicBoolean();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+    private KafkaTemplate<String, ProvisioningResult> kafkaTemplate;
+    private Path spillFile;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+
+        spillFile = directory.resolve("results-spill.ndjson");
+        kafkaTemplate = mock(KafkaTemplate.class);
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            attempts.incrementAndGet();
+            if (kafkaDown.get()) {
+                return CompletableFuture.failedFuture(new KafkaException("Broker not available"));
+            }
+            delivered.add(invocation.getArgument(1));
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Test
+    void leavesSpillingToThePublisherThread() throws Exception {
+
+        ResultPublisher publisher = publisher(2);
+        // Not started yet, so the queue fills up: two queued, two overflowing, one over both limits
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(result("int-app-" + i));
+        }
+        assertThat(spillFile).doesNotExist();
+        assertThat(count("dropped")).isEqualTo(1);
+
+        publisher.start();
+        try {
+            verify(kafkaTemplate, timeout(10000).times(4)).send(anyString(), anyString(), any());
+            assertThat(count("spilled")).isEqualTo(2);
+            assertThat(delivered).containsExactlyInAnyOrder("int-app-0", "int-app-1", "int-app-2", "int-app-3");
+        } finally {
+            publisher.stop();
+        }
+    }
+
+    @Test
+    void probesInsteadOfResendingTheSpillFileWhileKafkaIsDown() throws Exception {
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            lines.append(objectMapper.writeValueAsString(result("pro-app-" + i))).append('\n');
+        }
+        Files.write(spillFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+        kafkaDown.set(true);
+
+        ResultPublisher publisher = publisher(100);
+        publisher.start();
+        try {
+            Thread.sleep(3500);
+            // One probe per attempt, the attempts backing off from one second
+            assertThat(attempts.get()).isBetween(1, 3);
+
+            kafkaDown.set(false);
+            long deadline = System.currentTimeMillis() + 15000;
+            while (delivered.size() < 20 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertThat(delivered).hasSize(20);
+            verify(kafkaTemplate, times(attempts.get())).send(anyString(), anyString(), any());
+        } finally {
+            publisher.stop();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private ResultPublisher publisher(int queueCapacity) {
+        return new ResultPublisher(kafkaTemplate, objectMapper, meterRegistry, true, "provisioning-results",
+                queueCapacity, "spill", spillFile.toString(), 1 << 20);
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.get("provisioning.results").tag("outcome", outcome).counter().count();
+    }
+
+    private static ProvisioningResult result(String namespaceName) {
+        return new ProvisioningResult(namespaceName, namespaceName.substring(4), namespaceName.substring(0, 3).toUpperCase(),
+                true, 10, System.currentTimeMillis(), List.of(), null);
+    }
+}
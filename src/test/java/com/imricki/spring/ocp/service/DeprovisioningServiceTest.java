@@ -0,0 +1,118 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.utils.ManifestFactory;
+import com.imricki.spring.ocp.utils.OCPResources;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ Tears down an environment on a CRUD mock API server holding namespaces of several environments.
+ Every DELETE is held on the wire for a while, so the deletes of a batch overlap.
+ */
+class DeprovisioningServiceTest {
+
+    private static final List<String> PRO_NAMESPACES = List.of("pro-orders", "pro-billing", "pro-catalog", "pro-search", "pro-cart");
+
+    private final KubernetesServer server = new KubernetesServer(false, true);
+    private final AtomicInteger deletesOnTheWire = new AtomicInteger();
+    private final AtomicInteger mostDeletesOnTheWire = new AtomicInteger();
+    private KubernetesClient client;
+    private DeprovisioningService deprovisioningService;
+
+    @BeforeEach
+    void setUp() {
+
+        server.before();
+        Config config = new ConfigBuilder(server.getClient().getConfiguration()).build();
+        client = new DefaultKubernetesClient(HttpClientUtils.createHttpClient(config, builder -> builder.addInterceptor(chain -> {
+            if (!"DELETE".equals(chain.request().method())) {
+                return chain.proceed(chain.request());
+            }
+            mostDeletesOnTheWire.accumulateAndGet(deletesOnTheWire.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+                return chain.proceed(chain.request());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                deletesOnTheWire.decrementAndGet();
+            }
+        })), config);
+
+        PRO_NAMESPACES.forEach(name -> create(name, "pro"));
+        // Named like PRO but provisioned for INT
+        create("pro-legacy", "int");
+        create("int-orders", "int");
+        client.namespaces().create(new NamespaceBuilder().withNewMetadata().withName("pro-unmanaged").endMetadata().build());
+
+        OCPResources ocpResources = mock(OCPResources.class);
+        when(ocpResources.getApplicationLabelKey()).thenReturn("app");
+        when(ocpResources.getApplicationLabelValue()).thenReturn("ocp-provisioner");
+        KubernetesClientPool kubernetesClientPool = mock(KubernetesClientPool.class);
+        when(kubernetesClientPool.forEnvironment("PRO")).thenReturn(new KubernetesCluster("default", client, null));
+        deprovisioningService = new DeprovisioningService(kubernetesClientPool, ocpResources, new SimpleAsyncTaskExecutor(), 32);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.after();
+    }
+
+    @Test
+    void deletesOnlyTheLabeledNamespacesOfTheEnvironmentInBoundedBatches() throws InterruptedException {
+
+        List<DeprovisioningResult> results = new CopyOnWriteArrayList<>();
+        deprovisioningService.deprovision("PRO", 2, 10000, results::add);
+
+        Map<String, List<DeprovisioningResult.Status>> progress = new LinkedHashMap<>();
+        results.forEach(result -> progress.computeIfAbsent(result.getNamespaceName(), name -> new ArrayList<>()).add(result.getStatus()));
+        assertThat(progress).containsOnlyKeys(PRO_NAMESPACES);
+        // The mock finalizes at once, so the watch may report a namespace gone before its delete call returned
+        progress.values().forEach(statuses -> assertThat(statuses)
+                .endsWith(DeprovisioningResult.Status.DELETED)
+                .isSubsetOf(DeprovisioningResult.Status.DELETING, DeprovisioningResult.Status.DELETED)
+                .doesNotHaveDuplicates());
+
+        assertThat(mostDeletesOnTheWire.get()).isEqualTo(2);
+        assertThat(client.namespaces().list().getItems().stream().map(namespace -> namespace.getMetadata().getName())
+                .collect(Collectors.toList()))
+                .containsExactlyInAnyOrder("pro-legacy", "int-orders", "pro-unmanaged");
+    }
+
+    private void create(String name, String environment) {
+        client.namespaces().create(new NamespaceBuilder()
+                .withNewMetadata()
+                .withName(name)
+                .addToLabels("app", "ocp-provisioner")
+                .addToLabels(ManifestFactory.ENVIRONMENT_LABEL, environment)
+                .endMetadata()
+                .build());
+    }
+}
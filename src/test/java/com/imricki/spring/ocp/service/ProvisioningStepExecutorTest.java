@@ -0,0 +1,150 @@
+package com.imricki.spring.ocp.service;
+
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProvisioningStepExecutorTest {
+
+    private static final NewApplicationEvent EVENT = new NewApplicationEvent("orders", "PRE");
+
+    private final ThreadPoolTaskExecutor stepTaskExecutor = new ThreadPoolTaskExecutor();
+    private final List<String> trace = new CopyOnWriteArrayList<>();
+    private ProvisioningStepExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        stepTaskExecutor.setCorePoolSize(8);
+        stepTaskExecutor.initialize();
+        KubernetesClientPool kubernetesClientPool = mock(KubernetesClientPool.class);
+        when(kubernetesClientPool.forEnvironment("PRE")).thenReturn(new KubernetesCluster("default", null, stepTaskExecutor));
+        executor = new ProvisioningStepExecutor(kubernetesClientPool, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        stepTaskExecutor.shutdown();
+    }
+
+    @Test
+    void runsIndependentStepsAtTheSameTime() {
+
+        // Each of them only finishes once all four are running
+        CountDownLatch allRunning = new CountDownLatch(4);
+        Consumer<NewApplicationEvent> rendezvous = event -> {
+            allRunning.countDown();
+            await(allRunning);
+        };
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions = actions();
+        actions.put(ProvisioningStep.LIMITS_AND_QUOTAS, rendezvous);
+        actions.put(ProvisioningStep.SERVICE_ACCOUNT, rendezvous);
+        actions.put(ProvisioningStep.SECRETS, rendezvous);
+        actions.put(ProvisioningStep.NETWORK_POLICIES, rendezvous);
+
+        ProvisioningReport report = executor.execute(EVENT, actions);
+
+        assertThat(report.isSuccessful()).isTrue();
+        assertThat(report.getSteps()).extracting(StepResult::getStep).containsExactly(ProvisioningStep.values());
+    }
+
+    @Test
+    void startsAStepOnlyOnceItsDependenciesSucceeded() {
+
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions = actions();
+        actions.put(ProvisioningStep.SERVICE_ACCOUNT, event -> {
+            trace.add("SERVICE_ACCOUNT started");
+            sleep(100);
+            trace.add("SERVICE_ACCOUNT finished");
+        });
+
+        ProvisioningReport report = executor.execute(EVENT, actions);
+
+        assertThat(report.isSuccessful()).isTrue();
+        assertThat(trace.indexOf("NAMESPACE")).isLessThan(trace.indexOf("SERVICE_ACCOUNT started"));
+        assertThat(trace.indexOf("SERVICE_ACCOUNT finished")).isLessThan(trace.indexOf("ROLE_BINDINGS"));
+        assertThat(trace.indexOf("ROLE_BINDINGS")).isLessThan(trace.indexOf("HELM_CHART"));
+    }
+
+    @Test
+    void skipsTheDependentsOfAFailedStep() {
+
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions = actions();
+        actions.put(ProvisioningStep.SERVICE_ACCOUNT, event -> {
+            throw new IllegalStateException("serviceaccounts is forbidden");
+        });
+        List<StepResult> notified = new CopyOnWriteArrayList<>();
+
+        ProvisioningReport report = executor.execute(EVENT, actions, notified::add);
+
+        Map<ProvisioningStep, StepResult> results = report.getSteps().stream()
+                .collect(Collectors.toMap(StepResult::getStep, result -> result));
+        assertThat(report.isSuccessful()).isFalse();
+        assertThat(results.get(ProvisioningStep.NAMESPACE).getStatus()).isEqualTo(StepResult.Status.SUCCEEDED);
+        assertThat(results.get(ProvisioningStep.SERVICE_ACCOUNT).getStatus()).isEqualTo(StepResult.Status.FAILED);
+        assertThat(results.get(ProvisioningStep.SERVICE_ACCOUNT).getError()).isEqualTo("serviceaccounts is forbidden");
+        assertThat(results.get(ProvisioningStep.ROLE_BINDINGS).getStatus()).isEqualTo(StepResult.Status.SKIPPED);
+        assertThat(results.get(ProvisioningStep.HELM_CHART).getStatus()).isEqualTo(StepResult.Status.SKIPPED);
+        assertThat(trace).doesNotContain("ROLE_BINDINGS", "HELM_CHART");
+        assertThat(notified).contains(results.get(ProvisioningStep.ROLE_BINDINGS), results.get(ProvisioningStep.SERVICE_ACCOUNT));
+    }
+
+    @Test
+    void reportsStepsOfAnEarlierRunAsResumedWithoutRunningThem() {
+
+        ProvisioningReport report = executor.execute(EVENT, actions(),
+                Set.of(ProvisioningStep.NAMESPACE, ProvisioningStep.SERVICE_ACCOUNT), StepListener.NONE);
+
+        assertThat(report.isSuccessful()).isTrue();
+        assertThat(report.getSteps().get(0).getStatus()).isEqualTo(StepResult.Status.RESUMED);
+        assertThat(trace).doesNotContain("NAMESPACE", "SERVICE_ACCOUNT").contains("ROLE_BINDINGS");
+    }
+
+    /*
+     Every step, each recording its name when it runs.
+     */
+    private Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions() {
+        Map<ProvisioningStep, Consumer<NewApplicationEvent>> actions = new EnumMap<>(ProvisioningStep.class);
+        for (ProvisioningStep step : ProvisioningStep.values()) {
+            actions.put(step, event -> trace.add(step.name()));
+        }
+        return actions;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Steps did not run concurrently");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.imricki.spring.ocp.sharding;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ Several replicas sharing the leases of a CRUD mock API server.
+ */
+class ShardCoordinatorTest {
+
+    private static final int SHARDS = 8;
+
+    private final KubernetesServer server = new KubernetesServer(false, true);
+    private final List<ShardCoordinator> replicas = new ArrayList<>();
+    private KubernetesClient client;
+
+    @BeforeEach
+    void setUp() {
+        server.before();
+        client = server.getClient();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (ShardCoordinator replica : replicas) {
+            replica.stop();
+        }
+        server.after();
+    }
+
+    @Test
+    void splitsTheShardsAndHandsThemOverOnShutdown() throws InterruptedException {
+
+        ShardCoordinator first = replica("first");
+        ShardCoordinator second = replica("second");
+
+        awaitTrue(() -> first.assignment().getOwnedShards().size() == SHARDS / 2
+                && second.assignment().getOwnedShards().size() == SHARDS / 2);
+        Set<Integer> all = new HashSet<>(first.assignment().getOwnedShards());
+        all.addAll(second.assignment().getOwnedShards());
+        assertThat(all).hasSize(SHARDS);
+
+        first.stop();
+        replicas.remove(first);
+        awaitTrue(() -> second.assignment().getOwnedShards().size() == SHARDS);
+    }
+
+    @Test
+    void stopsTheRunsOfAPartitionedReplicaBeforeAnotherOneTakesOver() throws InterruptedException {
+
+        AtomicBoolean partitioned = new AtomicBoolean();
+        ShardCoordinator first = replica("first", partitionableClient(partitioned));
+        ShardCoordinator second = replica("second", client);
+        awaitTrue(() -> first.assignment().getOwnedShards().size() == SHARDS / 2
+                && second.assignment().getOwnedShards().size() == SHARDS / 2);
+
+        String key = IntStream.range(0, 100).mapToObj(i -> "pre-app-" + i)
+                .filter(candidate -> first.assignment().getOwnedShards().contains(first.shardOf(candidate)))
+                .findFirst().orElseThrow();
+        assertThat(first.tryBeginRun(key)).isTrue();
+        assertThat(first.holdsRun(key)).isTrue();
+
+        // The first replica cannot renew anymore, its run must stop writing before the second one may start
+        partitioned.set(true);
+        awaitTrue(() -> second.assignment().getOwnedShards().contains(second.shardOf(key)));
+        assertThat(first.holdsRun(key)).isFalse();
+        assertThat(first.tryBeginRun("pre-other")).isFalse();
+        awaitTrue(() -> second.assignment().getOwnedShards().size() == SHARDS);
+        first.endRun(key);
+    }
+
+    private KubernetesClient partitionableClient(AtomicBoolean partitioned) {
+        Config config = new ConfigBuilder(client.getConfiguration()).build();
+        return new DefaultKubernetesClient(HttpClientUtils.createHttpClient(config, builder -> builder.addInterceptor(chain -> {
+            if (partitioned.get()) {
+                throw new IOException("API server unreachable");
+            }
+            return chain.proceed(chain.request());
+        })), config);
+    }
+
+    private ShardCoordinator replica(String identity) {
+        return replica(identity, client);
+    }
+
+    private ShardCoordinator replica(String identity, KubernetesClient client) {
+        ShardCoordinator replica = new ShardCoordinator(client, new SimpleMeterRegistry(), true, SHARDS, "test",
+                "ocp-provisioner", identity, "http://" + identity + ":8080", 2, 100, 8080);
+        replica.start();
+        replicas.add(replica);
+        return replica;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition met within 15 s").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+}
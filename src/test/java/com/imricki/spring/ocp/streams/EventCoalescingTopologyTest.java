@@ -0,0 +1,140 @@
+package com.imricki.spring.ocp.streams;
+
+import com.imricki.spring.ocp.event.NewApplicationEvent;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.errors.LogAndContinueExceptionHandler;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.support.serializer.JsonSerde;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ Drives the topology with a mocked wall clock, so windows close exactly when the test says so.
+ */
+class EventCoalescingTopologyTest {
+
+    private static final Duration WINDOW = Duration.ofSeconds(10);
+
+    @TempDir
+    Path stateDir;
+
+    private TopologyTestDriver driver;
+    private TestInputTopic<String, NewApplicationEvent> input;
+    private TestOutputTopic<String, NewApplicationEvent> commands;
+
+    @BeforeEach
+    void setUp() {
+
+        StreamsBuilder builder = new StreamsBuilder();
+        EventCoalescingTopology.build(builder, "new-application-events", "provision-commands", WINDOW);
+
+        Properties properties = new Properties();
+        properties.put(StreamsConfig.APPLICATION_ID_CONFIG, "coalescing-test");
+        properties.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        properties.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        // As in application.yml
+        properties.put(StreamsConfig.DEFAULT_DESERIALIZATION_EXCEPTION_HANDLER_CLASS_CONFIG, LogAndContinueExceptionHandler.class);
+        driver = new TopologyTestDriver(builder.build(), properties, Instant.ofEpochMilli(1_000_000));
+
+        JsonSerde<NewApplicationEvent> eventSerde = new JsonSerde<>(NewApplicationEvent.class).noTypeInfo().ignoreTypeHeaders();
+        input = driver.createInputTopic("new-application-events", Serdes.String().serializer(), eventSerde.serializer());
+        commands = driver.createOutputTopic("provision-commands", Serdes.String().deserializer(), eventSerde.deserializer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    void collapsesABurstIntoTheLatestEvent() {
+
+        input.pipeInput(null, new NewApplicationEvent("orders", "PRE"));
+        driver.advanceWallClockTime(Duration.ofSeconds(3));
+        input.pipeInput(null, new NewApplicationEvent("orders", "PRE"));
+        driver.advanceWallClockTime(Duration.ofSeconds(3));
+        input.pipeInput(null, new NewApplicationEvent("orders", "PRE"));
+
+        // The window opened with the first event and has not closed yet
+        driver.advanceWallClockTime(Duration.ofSeconds(3));
+        assertThat(commands.isEmpty()).isTrue();
+
+        driver.advanceWallClockTime(Duration.ofSeconds(1));
+        assertThat(commands.readKeyValuesToList())
+                .containsExactly(KeyValue.pair("pre-orders", new NewApplicationEvent("orders", "PRE")));
+        assertThat(entries(EventCoalescingTopology.DEADLINE_STORE)).isZero();
+    }
+
+    @Test
+    void emitsOnlyTheWindowsThatAreDue() {
+
+        input.pipeInput(null, new NewApplicationEvent("billing", "PRO"));
+        driver.advanceWallClockTime(Duration.ofSeconds(5));
+        input.pipeInput(null, new NewApplicationEvent("catalog", "PRO"));
+        input.pipeInput(null, new NewApplicationEvent("billing", "PRO"));
+
+        driver.advanceWallClockTime(Duration.ofSeconds(5));
+        assertThat(commands.readKeyValuesToMap()).containsOnlyKeys("pro-billing");
+        assertThat(entries(EventCoalescingTopology.DEADLINE_STORE)).isEqualTo(1);
+
+        driver.advanceWallClockTime(Duration.ofSeconds(5));
+        assertThat(commands.readKeyValuesToMap()).containsOnlyKeys("pro-catalog");
+        assertThat(entries(EventCoalescingTopology.PENDING_STORE)).isZero();
+        assertThat(entries(EventCoalescingTopology.DEADLINE_STORE)).isZero();
+    }
+
+    @Test
+    void skipsAMalformedEventAndKeepsCoalescing() {
+
+        TestInputTopic<byte[], byte[]> raw = driver.createInputTopic("new-application-events",
+                new ByteArraySerializer(), new ByteArraySerializer());
+        raw.pipeInput(null, "{\"applicationName\": \"orders\", \"environ".getBytes(StandardCharsets.UTF_8));
+        input.pipeInput(null, new NewApplicationEvent("orders", "INT"));
+        raw.pipeInput(null, new byte[]{(byte) 0xff, 0x00});
+        input.pipeInput(null, new NewApplicationEvent("billing", "INT"));
+
+        driver.advanceWallClockTime(WINDOW);
+        assertThat(commands.readKeyValuesToMap()).containsOnlyKeys("int-orders", "int-billing");
+    }
+
+    @Test
+    void ordersDeadlinesByClosingTime() {
+
+        Bytes early = EventCoalescingTopology.deadlineKey(9_000, "pro-zeta");
+        Bytes late = EventCoalescingTopology.deadlineKey(10_000, "int-alpha");
+
+        assertThat(early.compareTo(late)).isNegative();
+        assertThat(EventCoalescingTopology.closesAt(late)).isEqualTo(10_000);
+    }
+
+    private long entries(String storeName) {
+        KeyValueStore<Object, Object> store = driver.getKeyValueStore(storeName);
+        long count = 0;
+        try (KeyValueIterator<Object, Object> iterator = store.all()) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
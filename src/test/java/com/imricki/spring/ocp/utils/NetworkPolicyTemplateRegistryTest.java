@@ -0,0 +1,131 @@
+package com.imricki.spring.ocp.utils;
+
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NetworkPolicyTemplateRegistryTest {
+
+    @TempDir
+    Path directory;
+
+    private NetworkPolicyTemplateRegistry registry;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (registry != null) {
+            registry.stop();
+        }
+    }
+
+    @Test
+    void bundledTemplateIsTheBaselinePolicy() throws IOException {
+
+        registry = start("");
+
+        List<NetworkPolicy> policies = registry.forNamespace("INT", "int-orders", Map.of());
+
+        assertThat(policies).extracting(policy -> policy.getMetadata().getName()).containsExactly("my-network-policy");
+        assertThat(policies.get(0).getSpec().getIngress().get(0).getFrom().get(0).getPodSelector().getMatchLabels())
+                .containsExactly(Map.entry("network-key", "network-value"));
+        assertThat(policies.get(0).getSpec().getIngress().get(0).getPorts().get(0).getPort().getIntVal()).isEqualTo(80);
+    }
+
+    @Test
+    void parsesEveryDocumentAndLetsAnEnvironmentOverrideByName() throws IOException {
+
+        Files.writeString(directory.resolve("common.yml"), policy("allow-web", 80) + "---\n" + policy("allow-metrics", 9090));
+        Files.createDirectory(directory.resolve("pro"));
+        Files.writeString(directory.resolve("pro").resolve("web.yaml"), policy("allow-web", 443));
+        registry = start(directory.toString());
+
+        assertThat(registry.forNamespace("INT", "int-orders", Map.of())).extracting(policy -> policy.getMetadata().getName())
+                .containsExactlyInAnyOrder("my-network-policy", "allow-web", "allow-metrics");
+        assertThat(port(registry.forNamespace("INT", "int-orders", Map.of()), "allow-web")).isEqualTo(80);
+        assertThat(port(registry.forNamespace("PRO", "pro-orders", Map.of()), "allow-web")).isEqualTo(443);
+    }
+
+    @Test
+    void copiesForANamespaceLeaveTheTemplateUntouched() throws IOException {
+
+        Files.writeString(directory.resolve("web.yml"), policy("allow-web", 80).replace("  name: allow-web\n",
+                "  name: allow-web\n  labels:\n    tier: web\n"));
+        registry = start(directory.toString());
+
+        NetworkPolicy first = find(registry.forNamespace("INT", "int-orders", Map.of("app", "orders")), "allow-web");
+        first.getMetadata().getLabels().put("tampered", "true");
+        first.getMetadata().setName("renamed");
+        NetworkPolicy second = find(registry.forNamespace("PRO", "pro-billing", Map.of("app", "billing")), "allow-web");
+
+        assertThat(first.getMetadata().getNamespace()).isEqualTo("int-orders");
+        assertThat(second.getMetadata().getNamespace()).isEqualTo("pro-billing");
+        assertThat(second.getMetadata().getLabels()).containsExactly(Map.entry("tier", "web"), Map.entry("app", "billing"));
+        assertThat(second.getMetadata()).isNotSameAs(first.getMetadata());
+    }
+
+    @Test
+    void reloadsATemplateChangedOnDisk() throws Exception {
+
+        Path file = directory.resolve("web.yml");
+        Files.writeString(file, policy("allow-web", 80));
+        registry = start(directory.toString());
+        assertThat(port(registry.forNamespace("INT", "int-orders", Map.of()), "allow-web")).isEqualTo(80);
+
+        Files.writeString(file, policy("allow-web", 8080));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (port(registry.forNamespace("INT", "int-orders", Map.of()), "allow-web") != 8080
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(port(registry.forNamespace("INT", "int-orders", Map.of()), "allow-web")).isEqualTo(8080);
+    }
+
+    @Test
+    void keepsThePreviousTemplatesWhenAFileFailsToParse() throws IOException {
+
+        Path file = directory.resolve("web.yml");
+        Files.writeString(file, policy("allow-web", 80));
+        registry = start(directory.toString());
+
+        Files.writeString(file, "kind: NetworkPolicy\nmetadata: [not, a, map\n");
+        registry.reload();
+
+        assertThat(port(registry.forNamespace("INT", "int-orders", Map.of()), "allow-web")).isEqualTo(80);
+    }
+
+    private static NetworkPolicyTemplateRegistry start(String directory) throws IOException {
+        NetworkPolicyTemplateRegistry registry = new NetworkPolicyTemplateRegistry(directory);
+        registry.start();
+        return registry;
+    }
+
+    private static NetworkPolicy find(List<NetworkPolicy> policies, String name) {
+        return policies.stream().filter(policy -> policy.getMetadata().getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static int port(List<NetworkPolicy> policies, String name) {
+        return find(policies, name).getSpec().getIngress().get(0).getPorts().get(0).getPort().getIntVal();
+    }
+
+    private static String policy(String name, int port) {
+        return "apiVersion: networking.k8s.io/v1\n"
+                + "kind: NetworkPolicy\n"
+                + "metadata:\n"
+                + "  name: " + name + "\n"
+                + "spec:\n"
+                + "  podSelector: {}\n"
+                + "  ingress:\n"
+                + "    - ports:\n"
+                + "        - port: " + port + "\n";
+    }
+}
@@ -0,0 +1,236 @@
+package com.imricki.spring.ocp.utils;
+
+import com.imricki.spring.ocp.cache.ResourceCache;
+import com.imricki.spring.ocp.cluster.KubernetesClientPool;
+import com.imricki.spring.ocp.cluster.KubernetesCluster;
+import com.imricki.spring.ocp.config.ResourceProfileProperties;
+import com.imricki.spring.ocp.helm.HelmChartRenderer;
+import com.imricki.spring.ocp.reporting.ResultPublisher;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.ServiceAccount;
+import io.fabric8.kubernetes.api.model.ServiceAccountBuilder;
+import io.fabric8.kubernetes.api.model.networking.v1.NetworkPolicy;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ Provisioning steps against a CRUD mock API server; every request the client sends is recorded. Unless a test
+ switches to a disabled cache, which reads through to the API server, the cache is a mock that knows nothing,
+ as the label-filtered informers do for objects created without the application label.
+ */
+class ProvisioningUtilsTest {
+
+    private static final String NAMESPACE = "pre-orders";
+
+    private final KubernetesServer server = new KubernetesServer(false, true);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OCPResources ocpResources = mock(OCPResources.class);
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private ResourceCache resourceCache = mock(ResourceCache.class);
+    private NetworkPolicyTemplateRegistry networkPolicyTemplates;
+    private KubernetesClient client;
+    private ProvisioningUtils provisioningUtils;
+
+    @TempDir
+    Path templateDirectory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server.before();
+        Config config = new ConfigBuilder(server.getClient().getConfiguration()).build();
+        client = new DefaultKubernetesClient(HttpClientUtils.createHttpClient(config, builder -> builder.addInterceptor(chain -> {
+            requests.add(chain.request().method() + " " + chain.request().url().encodedPath());
+            return chain.proceed(chain.request());
+        })), config);
+
+        when(ocpResources.getApplicationLabelKey()).thenReturn("app");
+        when(ocpResources.getApplicationLabelValue()).thenReturn("ocp-provisioner");
+        when(ocpResources.getCpuLimit()).thenReturn("500m");
+        when(ocpResources.getMemoryLimit()).thenReturn("512Mi");
+        when(ocpResources.getLimitRangeName()).thenReturn("limits");
+        when(ocpResources.getResourceQuotaName()).thenReturn("quota");
+        when(ocpResources.getServiceAccountName()).thenReturn("deployer");
+        when(ocpResources.getRoleName()).thenReturn("edit");
+        when(ocpResources.getSecretName()).thenReturn("credentials");
+        when(ocpResources.getSecretDataKey()).thenReturn("password");
+        when(ocpResources.getSecretDataValue()).thenReturn("s3cr3t");
+
+        networkPolicyTemplates = new NetworkPolicyTemplateRegistry("");
+        networkPolicyTemplates.start();
+        provisioningUtils = provisioningUtils(new ResourceProfileProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.after();
+    }
+
+    @Test
+    void reprovisioningAnUnchangedNamespaceOnlyReads() {
+
+        readThroughCache();
+        provisionAll();
+        assertThat(writes()).isNotEmpty();
+
+        requests.clear();
+        provisionAll();
+
+        assertThat(requests).isNotEmpty();
+        assertThat(writes()).isEmpty();
+        assertThat(count("Namespace", "skipped")).isEqualTo(1);
+        assertThat(count("ResourceQuota", "skipped")).isEqualTo(1);
+        assertThat(count("NetworkPolicy", "skipped")).isEqualTo(1);
+    }
+
+    @Test
+    void replacesAnObjectWhoseSpecChangedUnderANewHash() throws Exception {
+
+        Path template = templateDirectory.resolve("web.yml");
+        Files.writeString(template, policy(8080));
+        networkPolicyTemplates = new NetworkPolicyTemplateRegistry(templateDirectory.toString());
+        networkPolicyTemplates.reload();
+        readThroughCache();
+
+        provisioningUtils.createNetworkPolicies(NAMESPACE, "PRE");
+        String firstHash = hashOf(client.network().networkPolicies().inNamespace(NAMESPACE).withName("allow-web").get());
+
+        Files.writeString(template, policy(8443));
+        networkPolicyTemplates.reload();
+        requests.clear();
+        provisioningUtils.createNetworkPolicies(NAMESPACE, "PRE");
+
+        NetworkPolicy live = client.network().networkPolicies().inNamespace(NAMESPACE).withName("allow-web").get();
+        assertThat(live.getSpec().getIngress().get(0).getPorts().get(0).getPort().getIntVal()).isEqualTo(8443);
+        assertThat(hashOf(live)).isNotEqualTo(firstHash);
+        // createOrReplace tries a create first and replaces on the conflict
+        assertThat(writes()).endsWith("PUT /apis/networking.k8s.io/v1/namespaces/" + NAMESPACE + "/networkpolicies/allow-web");
+        assertThat(count("NetworkPolicy", "replaced")).isEqualTo(1);
+    }
+
+    @Test
+    void labelsAndStampsAServiceAccountCreatedBeforeItCarriedTheLabels() {
+
+        client.serviceAccounts().inNamespace(NAMESPACE).create(new ServiceAccountBuilder()
+                .withNewMetadata().withName("deployer").withNamespace(NAMESPACE).endMetadata()
+                .build());
+
+        provisioningUtils.createServiceAccount(NAMESPACE, "PRE");
+
+        ServiceAccount live = client.serviceAccounts().inNamespace(NAMESPACE).withName("deployer").get();
+        assertThat(live.getMetadata().getLabels()).containsEntry("app", "ocp-provisioner");
+        assertThat(live.getMetadata().getAnnotations()).containsKey(ManifestHasher.SPEC_HASH_ANNOTATION);
+        assertThat(count("ServiceAccount", "replaced")).isEqualTo(1);
+    }
+
+    @Test
+    void labelsTheNamespaceWithItsEnvironment() {
+
+        provisioningUtils.createNamespace(NAMESPACE, "PRE");
+
+        assertThat(client.namespaces().withName(NAMESPACE).get().getMetadata().getLabels())
+                .containsEntry("app", "ocp-provisioner")
+                .containsEntry(ManifestFactory.ENVIRONMENT_LABEL, "pre");
+    }
+
+    @Test
+    void replacesTheQuotaOfAnExistingNamespaceWhenTheProfileChanges() {
+
+        provisioningUtils.createLimitsAndQuotas(NAMESPACE, "PRE");
+        assertThat(quota().getSpec().getHard()).containsEntry("limits.cpu", new Quantity("500m"));
+
+        // Same profile, nothing to write
+        provisioningUtils.createLimitsAndQuotas(NAMESPACE, "PRE");
+        assertThat(count("ResourceQuota", "replaced")).isZero();
+
+        ResourceProfileProperties.Profile pre = new ResourceProfileProperties.Profile();
+        pre.setCpuLimit("2");
+        pre.setMemoryLimit("4Gi");
+        ResourceProfileProperties profiles = new ResourceProfileProperties();
+        profiles.getProfiles().put("pre", pre);
+        provisioningUtils(profiles).createLimitsAndQuotas(NAMESPACE, "PRE");
+
+        assertThat(quota().getSpec().getHard())
+                .containsEntry("limits.cpu", new Quantity("2"))
+                .containsEntry("limits.memory", new Quantity("4Gi"));
+        assertThat(client.limitRanges().inNamespace(NAMESPACE).withName("limits").get().getSpec().getLimits().get(0).getDefault())
+                .containsEntry("cpu", new Quantity("2"));
+        assertThat(count("ResourceQuota", "replaced")).isEqualTo(1);
+        assertThat(count("LimitRange", "replaced")).isEqualTo(1);
+    }
+
+    private void readThroughCache() {
+        resourceCache = new ResourceCache(mock(KubernetesClientPool.class), ocpResources, false, 0);
+        provisioningUtils = provisioningUtils(new ResourceProfileProperties());
+    }
+
+    private void provisionAll() {
+        provisioningUtils.createNamespace(NAMESPACE, "PRE");
+        provisioningUtils.createLimitsAndQuotas(NAMESPACE, "PRE");
+        provisioningUtils.createServiceAccount(NAMESPACE, "PRE");
+        provisioningUtils.createRoleBindings(NAMESPACE, "PRE");
+        provisioningUtils.createSecrets(NAMESPACE, "PRE");
+        provisioningUtils.createNetworkPolicies(NAMESPACE, "PRE");
+    }
+
+    private List<String> writes() {
+        return requests.stream().filter(request -> !request.startsWith("GET ")).collect(Collectors.toList());
+    }
+
+    private static String hashOf(HasMetadata live) {
+        return live.getMetadata().getAnnotations().get(ManifestHasher.SPEC_HASH_ANNOTATION);
+    }
+
+    private static String policy(int port) {
+        return """
+                apiVersion: networking.k8s.io/v1
+                kind: NetworkPolicy
+                metadata:
+                  name: allow-web
+                spec:
+                  podSelector: {}
+                  ingress:
+                    - ports:
+                        - protocol: TCP
+                          port: %d
+                """.formatted(port);
+    }
+
+    private ResourceQuota quota() {
+        return client.resourceQuotas().inNamespace(NAMESPACE).withName("quota").get();
+    }
+
+    private ProvisioningUtils provisioningUtils(ResourceProfileProperties profiles) {
+        ManifestFactory manifestFactory = new ManifestFactory(ocpResources, networkPolicyTemplates, profiles);
+        KubernetesClientPool kubernetesClientPool = mock(KubernetesClientPool.class);
+        when(kubernetesClientPool.forEnvironment("PRE")).thenReturn(new KubernetesCluster("default", client, null));
+        return new ProvisioningUtils(kubernetesClientPool, ocpResources, manifestFactory, resourceCache,
+                meterRegistry, mock(ResultPublisher.class), mock(HelmChartRenderer.class), new SyncTaskExecutor());
+    }
+
+    private double count(String kind, String result) {
+        return meterRegistry.counter("provisioning.resources", "kind", kind, "result", result).count();
+    }
+}